@@ -0,0 +1,317 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An asynchronous copy of all data from an input stream to an output stream,
+ * as started by {@link IOUtils#pipeAsync(InputStream, OutputStream)}.<p>
+ *
+ * One task reads from the input stream into a ring of buffers, while another
+ * writes the filled buffers to the output stream, so a slow source and a slow
+ * sink work in parallel. The buffers are taken from the {@link BufferPool},
+ * and given back when both tasks have stopped. Both streams are closed when
+ * the copy ends.<p>
+ *
+ * This is a {@link Future} of the number of bytes copied. If the copy fails,
+ * {@link #get()} throws an {@link ExecutionException} with the first error as
+ * cause; errors closing the streams are added to it as suppressed exceptions.
+ *
+ * @author torkjelh
+ */
+public final class AsyncPipe implements Future<Long> {
+
+    private static final Chunk EOF = new Chunk(new byte[0]);
+
+    private static ExecutorService defaultExecutor;
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    private final int bufferSize;
+    private final Chunk[] chunks;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled;
+
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private final CountDownLatch done = new CountDownLatch(2);
+    private final AtomicInteger running = new AtomicInteger(2);
+    private volatile boolean cancelled;
+    private Throwable failure;
+    private Throwable closeFailure;
+
+    AsyncPipe(InputStream in, OutputStream out, int bufferSize, int buffers) {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("bufferSize: " + bufferSize);
+        if (buffers < 2)
+            throw new IllegalArgumentException("buffers: " + buffers);
+        this.in = in;
+        this.out = out;
+        this.bufferSize = bufferSize;
+        this.chunks = new Chunk[buffers];
+        this.free = new ArrayBlockingQueue<Chunk>(buffers);
+        this.filled = new ArrayBlockingQueue<Chunk>(buffers + 1);
+    }
+
+    /**
+     * Start the reading and writing tasks. The executor must be able to run
+     * both at the same time.
+     */
+    AsyncPipe start(Executor executor) {
+        if (executor == null)
+            executor = defaultExecutor();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Get the number of bytes read from the input stream so far.
+     *
+     * @return
+     */
+    public long bytesRead() {
+        return read.get();
+    }
+
+    /**
+     * Get the number of bytes written to the output stream so far.
+     *
+     * @return
+     */
+    public long bytesWritten() {
+        return written.get();
+    }
+
+    /**
+     * Stop the copy. The copy is done, and cancelled, when this returns. The
+     * input stream is closed at once, to interrupt a blocking read; the
+     * output stream is closed when the writing task stops.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (isDone())
+                return false;
+            cancelled = true;
+        }
+        close(in);
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return cancelled || done.getCount() == 0;
+    }
+
+    @Override
+    public Long get() throws InterruptedException, ExecutionException {
+        if (!cancelled)
+            done.await();
+        return result();
+    }
+
+    @Override
+    public Long get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!cancelled && !done.await(timeout, unit))
+            throw new TimeoutException();
+        return result();
+    }
+
+    private Long result() throws ExecutionException {
+        if (cancelled)
+            throw new CancellationException();
+        synchronized (this) {
+            // errors closing the streams never replace the error that
+            // stopped the copy.
+            if (closeFailure != null) {
+                if (failure == null)
+                    failure = closeFailure;
+                else if (failure != closeFailure)
+                    failure.addSuppressed(closeFailure);
+                closeFailure = null;
+            }
+            if (failure != null)
+                throw new ExecutionException(failure);
+        }
+        return written.get();
+    }
+
+    private void read() {
+        try {
+            // the buffers are taken here, so they come from and go back to
+            // the pool of a worker thread.
+            for (int n = 0; n < chunks.length; n++) {
+                chunks[n] = new Chunk(BufferPool.getBytes(bufferSize));
+                free.add(chunks[n]);
+            }
+            while (!stopped()) {
+                Chunk c = free.poll(100, TimeUnit.MILLISECONDS);
+                if (c == null)
+                    continue;
+                c.length = in.read(c.data, 0, bufferSize);
+                if (c.length == -1)
+                    break;
+                read.addAndGet(c.length);
+                filled.put(c);
+            }
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            close(in);
+            filled.offer(EOF);
+            stop();
+        }
+    }
+
+    private void write() {
+        try {
+            while (!stopped()) {
+                Chunk c = filled.poll(100, TimeUnit.MILLISECONDS);
+                if (c == EOF)
+                    break;
+                if (c == null)
+                    continue;
+                out.write(c.data, 0, c.length);
+                written.addAndGet(c.length);
+                free.put(c);
+            }
+            if (!stopped())
+                out.flush();
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            close(out);
+            // unblock a blocking read if the copy stopped early.
+            if (stopped())
+                close(in);
+            stop();
+        }
+    }
+
+    /**
+     * Mark a task as stopped. The last task to stop gives the buffers back
+     * to the pool, as neither task can touch them after that.
+     */
+    private void stop() {
+        if (running.decrementAndGet() == 0) {
+            for (Chunk c : chunks)
+                if (c != null)
+                    BufferPool.release(c.data);
+        }
+        done.countDown();
+    }
+
+    private boolean stopped() {
+        synchronized (this) {
+            return cancelled || failure != null;
+        }
+    }
+
+    private synchronized void fail(Throwable t) {
+        if (failure == null)
+            failure = t;
+        else if (failure != t)
+            failure.addSuppressed(t);
+    }
+
+    private void close(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            if (!cancelled)
+                closeFailed(e);
+        }
+    }
+
+    private synchronized void closeFailed(IOException e) {
+        if (closeFailure == null)
+            closeFailure = e;
+        else
+            closeFailure.addSuppressed(e);
+    }
+
+    private static synchronized Executor defaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "AsyncPipe-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        int length;
+
+        Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+}
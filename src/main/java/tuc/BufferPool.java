@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pool of IO buffers, to avoid allocating a new buffer for every IO
+ * operation. Buffers come in size classes (powers of two from
+ * {@link #MIN_SIZE} to {@link #MAX_SIZE}), both as heap arrays and as direct
+ * {@link ByteBuffer}s. Each thread keeps its own small cache of released
+ * buffers, so no locking is involved.<p>
+ *
+ * Usage:
+ * <pre>
+ * byte[] buf = BufferPool.getBytes(65536);
+ * try {
+ *   ...
+ * } finally {
+ *   BufferPool.release(buf);
+ * }
+ * </pre>
+ *
+ * A buffer must not be used after it has been released. Requests larger than
+ * {@link #MAX_SIZE} are served with new buffers, which are not pooled.
+ *
+ * @author torkjelh
+ */
+public final class BufferPool {
+
+    private BufferPool() { }
+
+    public static final int MIN_SIZE = 4 * 1024;
+
+    public static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final int MIN_SHIFT = 12;
+
+    private static final int CLASSES = 11;
+
+    /**
+     * The number of buffers of each size class and variant cached per thread.
+     */
+    private static final int PER_CLASS = 2;
+
+    private static final ThreadLocal<Cache> CACHE = new ThreadLocal<Cache>() {
+        @Override
+        protected Cache initialValue() {
+            return new Cache();
+        }
+    };
+
+    /**
+     * Get a heap buffer of at least the given size.
+     *
+     * @param minSize
+     * @return a buffer, which is not cleared.
+     */
+    public static byte[] getBytes(int minSize) {
+        int c = sizeClass(minSize);
+        if (c < 0)
+            return new byte[minSize];
+        Cache cache = CACHE.get();
+        int n = cache.heapCount[c];
+        if (n > 0) {
+            byte[] buf = cache.heap[c][--n];
+            cache.heap[c][n] = null;
+            cache.heapCount[c] = n;
+            return buf;
+        }
+        return new byte[MIN_SIZE << c];
+    }
+
+    /**
+     * Return a heap buffer to the pool. The pool does not track which
+     * buffers it handed out: any buffer whose size is exactly a size class
+     * is taken, and may be handed out again. So only release buffers
+     * obtained from {@link #getBytes(int)}, and only once no-one uses them.
+     * Buffers of other sizes are ignored.
+     *
+     * @param buf
+     */
+    public static void release(byte[] buf) {
+        int c = exactClass(buf.length);
+        if (c < 0)
+            return;
+        Cache cache = CACHE.get();
+        int n = cache.heapCount[c];
+        if (n < PER_CLASS) {
+            cache.heap[c][n] = buf;
+            cache.heapCount[c] = n + 1;
+        }
+    }
+
+    /**
+     * Get a direct buffer with a capacity of at least the given size.
+     *
+     * @param minSize
+     * @return a cleared buffer; the limit is the capacity.
+     */
+    public static ByteBuffer getDirect(int minSize) {
+        int c = sizeClass(minSize);
+        if (c < 0)
+            return ByteBuffer.allocateDirect(minSize);
+        Cache cache = CACHE.get();
+        int n = cache.directCount[c];
+        if (n > 0) {
+            ByteBuffer buf = cache.direct[c][--n];
+            cache.direct[c][n] = null;
+            cache.directCount[c] = n;
+            buf.clear();
+            return buf;
+        }
+        return ByteBuffer.allocateDirect(MIN_SIZE << c);
+    }
+
+    /**
+     * Return a direct buffer to the pool. As for
+     * {@link #release(byte[])}, any direct buffer whose capacity is exactly
+     * a size class is taken, so only release buffers obtained from
+     * {@link #getDirect(int)}, and only once no-one uses them. Other buffers
+     * are ignored.
+     *
+     * @param buf
+     */
+    public static void release(ByteBuffer buf) {
+        int c = buf.isDirect() ? exactClass(buf.capacity()) : -1;
+        if (c < 0)
+            return;
+        Cache cache = CACHE.get();
+        int n = cache.directCount[c];
+        if (n < PER_CLASS) {
+            cache.direct[c][n] = buf;
+            cache.directCount[c] = n + 1;
+        }
+    }
+
+    /**
+     * Get the smallest size class holding the given size.
+     *
+     * @return the class, or -1 if the size is larger than {@link #MAX_SIZE}.
+     */
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE)
+            return 0;
+        if (size > MAX_SIZE)
+            return -1;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Get the size class of exactly the given size.
+     *
+     * @return the class, or -1 if the size is not a class size.
+     */
+    private static int exactClass(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1)
+            return -1;
+        return Integer.numberOfTrailingZeros(size) - MIN_SHIFT;
+    }
+
+    private static final class Cache {
+        final byte[][][] heap = new byte[CLASSES][PER_CLASS][];
+        final int[] heapCount = new int[CLASSES];
+        final ByteBuffer[][] direct = new ByteBuffer[CLASSES][PER_CLASS];
+        final int[] directCount = new int[CLASSES];
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides {@link MessageDigest} instances without creating a new one for
+ * each hash. Each thread keeps a cached instance per algorithm, so the
+ * instances are never shared between threads and need no locking.<p>
+ *
+ * An instance is taken with {@link #take(String)} and given back with
+ * {@link #release(MessageDigest)}. While it is taken, a nested take on the
+ * same thread, e.g. from a stream being hashed, gets an instance of its own,
+ * so a digest may safely be held across calls to other code.
+ *
+ * @author torkjelh
+ */
+public final class Digests {
+
+    private Digests() { }
+
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS =
+        new ThreadLocal<Map<String, MessageDigest>>() {
+            @Override
+            protected Map<String, MessageDigest> initialValue() {
+                return new HashMap<String, MessageDigest>();
+            }
+        };
+
+    /**
+     * Take this thread's digest instance for an algorithm, or a new one if
+     * the thread has none. The instance is reset. Give it back with
+     * {@link #release(MessageDigest)} when done; until then a nested take on
+     * the same thread gets an instance of its own.
+     *
+     * @param algorithm an algorithm supported by {@link MessageDigest}.
+     * @return
+     * @throws RuntimeException if the algorithm is not supported.
+     */
+    public static MessageDigest take(String algorithm) {
+        MessageDigest digest = DIGESTS.get().remove(algorithm);
+        if (digest != null) {
+            digest.reset();
+            return digest;
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Give a digest taken with {@link #take(String)} back to this thread. It
+     * must not be used after this, and in particular not be released twice.
+     *
+     * @param digest
+     */
+    public static void release(MessageDigest digest) {
+        DIGESTS.get().put(digest.getAlgorithm(), digest);
+    }
+
+    /**
+     * Compute the digest of some data.
+     *
+     * @param data
+     * @param algorithm
+     * @return
+     * @throws RuntimeException if the algorithm is not supported.
+     */
+    public static byte[] digest(byte[] data, String algorithm) {
+        MessageDigest digest = take(algorithm);
+        try {
+            return digest.digest(data);
+        } finally {
+            release(digest);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of string hashes, for when the same strings are hashed
+ * over and over. When the cache is full, the least recently used hashes are
+ * evicted. The cache is safe for concurrent use; it is split into
+ * independently locked segments to keep contention low, and hashes are
+ * computed outside any lock.
+ * <pre>
+ * HashCache cache = new HashCache(StringUtils.SHA, 10000);
+ * String fingerprint = cache.hash(config);
+ * </pre>
+ *
+ * @author torkjelh
+ */
+public final class HashCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final String algorithm;
+    private final Charset charset;
+    private final Segment[] segments;
+
+    /**
+     * Create a cache for hashes of the UTF-8 encoding of strings.
+     *
+     * @param algorithm an algorithm supported by
+     *  {@link java.security.MessageDigest}.
+     * @param capacity the maximum number of hashes to keep.
+     */
+    public HashCache(String algorithm, int capacity) {
+        this(algorithm, StandardCharsets.UTF_8, capacity);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param algorithm an algorithm supported by
+     *  {@link java.security.MessageDigest}.
+     * @param charset the encoding of strings to hash.
+     * @param capacity the maximum number of hashes to keep.
+     */
+    public HashCache(String algorithm, Charset charset, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity: " + capacity);
+        // fail at once if the algorithm is not supported.
+        Digests.release(Digests.take(algorithm));
+        this.algorithm = algorithm;
+        this.charset = charset;
+        segments = new Segment[Math.min(MAX_SEGMENTS, Integer.highestOneBit(capacity))];
+        for (int n = 0; n < segments.length; n++)
+            segments[n] = new Segment(capacity / segments.length
+                + (n < capacity % segments.length ? 1 : 0));
+    }
+
+    /**
+     * Get the hash of a string, as by
+     * {@link StringUtils#hash(String, Charset)}, computing it if it is not
+     * cached.
+     *
+     * @param data
+     * @return
+     */
+    public String hash(String data) {
+        Segment segment = segment(data);
+        String hash;
+        synchronized (segment) {
+            hash = segment.get(data);
+        }
+        if (hash == null) {
+            hash = StringUtils.toHex(Digests.digest(data.getBytes(charset), algorithm));
+            synchronized (segment) {
+                segment.put(data, hash);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the number of cached hashes.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                size += segment.size();
+            }
+        return size;
+    }
+
+    /**
+     * Remove all cached hashes.
+     */
+    public void clear() {
+        for (Segment segment : segments)
+            synchronized (segment) {
+                segment.clear();
+            }
+    }
+
+    private Segment segment(String data) {
+        int h = data.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (segments.length - 1)];
+    }
+
+    private static final class Segment extends LinkedHashMap<String, String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > capacity;
+        }
+    }
+}
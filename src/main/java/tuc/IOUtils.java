@@ -26,6 +26,8 @@
 package tuc;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -33,6 +35,11 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
 
 /**
  * Utility functions pertaining to IO.
@@ -44,6 +51,16 @@ public final class IOUtils {
 
     private IOUtils() { }
 
+    /**
+     * The default buffer size for copying between streams.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The default buffer size for copying between channels.
+     */
+    public static final int DEFAULT_CHANNEL_BUFFER_SIZE = 256 * 1024;
+
     /**
      * Create an URL from a string.
      *
@@ -107,24 +124,244 @@ public final class IOUtils {
 
     /**
      * Copy all data from an input stream to an output stream, and close both
-     * streams when finished.
+     * streams when finished. If both streams are plain file streams, and the
+     * input is a regular file, the data is copied by the operating system
+     * without passing through the JVM (see
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}).
+     * Otherwise the data is copied through a pooled buffer of
+     * {@link #DEFAULT_BUFFER_SIZE} bytes.
      *
      * @param in
      * @param out
      * @throws RuntimeException if any IO-error occurs.
      */
     public static void pipe(InputStream in, OutputStream out) {
-        byte[] data = new byte[4096];
+        pipe(in, out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Copy all data from an input stream to an output stream, and close both
+     * streams when finished.
+     *
+     * @param in
+     * @param out
+     * @param bufferSize the size of the buffer to copy through, if the
+     *  streams are not file streams. The buffer is taken from the
+     *  {@link BufferPool}.
+     * @throws RuntimeException if any IO-error occurs.
+     * @see #pipe(InputStream, OutputStream)
+     * @throws IllegalArgumentException if the buffer size is less than 1.
+     */
+    public static void pipe(InputStream in, OutputStream out, int bufferSize) {
+        checkBufferSize(bufferSize);
+        // subclasses may override read/write, so only exact classes qualify.
+        if (in.getClass() == FileInputStream.class && out.getClass() == FileOutputStream.class
+                && isRegularFile(((FileInputStream)in).getChannel())) {
+            FileChannel src = ((FileInputStream)in).getChannel();
+            FileChannel dst = ((FileOutputStream)out).getChannel();
+            try {
+                transfer(src, dst);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                try { in.close(); } catch (IOException e) { e.printStackTrace(); }
+                try { out.close(); } catch (IOException e) { e.printStackTrace(); }
+            }
+            return;
+        }
+
+        byte[] data = BufferPool.getBytes(bufferSize);
         try {
             int len;
-            while ((len = in.read(data)) != -1)
+            while ((len = in.read(data, 0, bufferSize)) != -1)
                 out.write(data, 0, len);
             out.flush();
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
+            BufferPool.release(data);
+            try { in.close(); } catch (IOException e) { e.printStackTrace(); }
+            try { out.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    /**
+     * Copy all data from one channel to another, and close both channels when
+     * finished. If the source is a {@link FileChannel} of a regular file, the
+     * data is copied by the operating system where possible (e.g. to files
+     * and sockets).
+     * Otherwise the data is copied through a pooled direct buffer of
+     * {@link #DEFAULT_CHANNEL_BUFFER_SIZE} bytes.
+     *
+     * @param in
+     * @param out
+     * @throws RuntimeException if any IO-error occurs.
+     */
+    public static void pipe(ReadableByteChannel in, WritableByteChannel out) {
+        pipe(in, out, DEFAULT_CHANNEL_BUFFER_SIZE);
+    }
+
+    /**
+     * Copy all data from one channel to another, and close both channels when
+     * finished.
+     *
+     * @param in
+     * @param out
+     * @param bufferSize the size of the direct buffer to copy through, if the
+     *  source is not a file. The buffer is taken from the {@link BufferPool}.
+     * @throws RuntimeException if any IO-error occurs.
+     * @see #pipe(ReadableByteChannel, WritableByteChannel)
+     * @throws IllegalArgumentException if the buffer size is less than 1.
+     */
+    public static void pipe(ReadableByteChannel in, WritableByteChannel out, int bufferSize) {
+        checkBufferSize(bufferSize);
+        ByteBuffer buf = null;
+        try {
+            if (in instanceof FileChannel && isRegularFile((FileChannel)in))
+                transfer((FileChannel)in, out);
+            else {
+                buf = BufferPool.getDirect(bufferSize);
+                buf.limit(bufferSize);
+                while (in.read(buf) != -1) {
+                    buf.flip();
+                    while (buf.hasRemaining())
+                        out.write(buf);
+                    buf.clear().limit(bufferSize);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (buf != null)
+                BufferPool.release(buf);
             try { in.close(); } catch (IOException e) { e.printStackTrace(); }
             try { out.close(); } catch (IOException e) { e.printStackTrace(); }
         }
     }
+
+    /**
+     * Copy all data from an input stream to a channel. Neither is closed. If
+     * the stream is a plain file stream reading a regular file, the data is
+     * copied by the operating system where possible; otherwise it is copied
+     * through a pooled buffer.
+     *
+     * @param in
+     * @param out
+     * @param bufferSize
+     * @return the number of bytes copied.
+     * @throws RuntimeException if any IO-error occurs.
+     * @throws IllegalArgumentException if the buffer size is less than 1.
+     */
+    public static long copy(InputStream in, WritableByteChannel out, int bufferSize) {
+        checkBufferSize(bufferSize);
+        try {
+            if (in.getClass() == FileInputStream.class
+                    && isRegularFile(((FileInputStream)in).getChannel())) {
+                FileChannel src = ((FileInputStream)in).getChannel();
+                long start = src.position();
+                transfer(src, out);
+                return src.position() - start;
+            }
+            byte[] data = BufferPool.getBytes(bufferSize);
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                long count = 0;
+                int len;
+                while ((len = in.read(data, 0, bufferSize)) != -1) {
+                    buf.clear().limit(len);
+                    while (buf.hasRemaining())
+                        out.write(buf);
+                    count += len;
+                }
+                return count;
+            } finally {
+                BufferPool.release(data);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Start copying all data from an input stream to an output stream in the
+     * background, reading ahead into three buffers of
+     * {@link #DEFAULT_BUFFER_SIZE} bytes. Both streams are closed when the
+     * copy ends.
+     *
+     * @param in
+     * @param out
+     * @return a handle for following the progress and the outcome of the copy.
+     * @see AsyncPipe
+     */
+    public static AsyncPipe pipeAsync(InputStream in, OutputStream out) {
+        return pipeAsync(in, out, DEFAULT_BUFFER_SIZE, 3, null);
+    }
+
+    /**
+     * Start copying all data from an input stream to an output stream in the
+     * background. Both streams are closed when the copy ends.
+     *
+     * @param in
+     * @param out
+     * @param bufferSize the size of each buffer.
+     * @param buffers the number of buffers; at least 2.
+     * @param executor the executor to read and write in, which must be able
+     *  to run two tasks at the same time; or <code>null</code> to use a
+     *  shared pool of daemon threads.
+     * @return a handle for following the progress and the outcome of the copy.
+     * @see AsyncPipe
+     * @throws IllegalArgumentException if the buffer size is less than 1.
+     */
+    public static AsyncPipe pipeAsync(
+            InputStream in, OutputStream out, int bufferSize, int buffers, Executor executor) {
+        return new AsyncPipe(in, out, bufferSize, buffers).start(executor);
+    }
+
+    private static void checkBufferSize(int bufferSize) {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("bufferSize: " + bufferSize);
+    }
+
+    /**
+     * Check if a file channel reads a regular file, so the data can be
+     * transferred by position. Pipes, devices and files like those in /proc
+     * report no size, or can not be positioned, and must be read until the
+     * end of the stream instead.
+     */
+    private static boolean isRegularFile(FileChannel ch) {
+        try {
+            return ch.size() > 0 && ch.position() >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Transfer the rest of a file, from its current position, to a channel.
+     * If the channel takes nothing, e.g. a non-blocking channel that is
+     * full, the rest is copied through a buffer instead.
+     */
+    private static void transfer(FileChannel in, WritableByteChannel out) throws IOException {
+        long pos = in.position();
+        while (pos < in.size()) {
+            long n = in.transferTo(pos, in.size() - pos, out);
+            if (n == 0) {
+                in.position(pos);
+                ByteBuffer buf = BufferPool.getDirect(DEFAULT_CHANNEL_BUFFER_SIZE);
+                try {
+                    while (in.read(buf) != -1) {
+                        buf.flip();
+                        while (buf.hasRemaining())
+                            out.write(buf);
+                        buf.clear();
+                    }
+                } finally {
+                    BufferPool.release(buf);
+                }
+                return;
+            }
+            pos += n;
+        }
+        in.position(pos);
+    }
 }
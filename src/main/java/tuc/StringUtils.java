@@ -25,9 +25,20 @@
  */
 package tuc;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 public final class StringUtils {
 
@@ -56,12 +67,38 @@ public final class StringUtils {
     }
 
     /**
-     * Hash the given data
+     * Convert a string to an array of bytes, representing the string in the
+     * given encoding. Prefer this to {@link #getBytes(String, String)}, as it
+     * needs no lookup of the encoding by name.
+     *
+     * @param data
+     * @param charset
+     * @return
+     */
+    public static byte[] getBytes(String data, Charset charset) {
+        return data.getBytes(charset);
+    }
+
+    /**
+     * Hash the UTF-8 encoding of the given data.
      * @param data
      * @return
+     * @see HashCache
      */
     public static String hash(String data) {
-        return hash(data, UTF8);
+        return hash(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hash the given data.
+     * @see #hash(byte[], String)
+     *
+     * @param data
+     * @param charset
+     * @return
+     */
+    public static String hash(String data, Charset charset) {
+        return hash(data.getBytes(charset));
     }
 
     /**
@@ -96,14 +133,165 @@ public final class StringUtils {
      * @return a string representation of the
      */
     public static String hash(byte[] data, String algorighm) {
-        MessageDigest digest;
+        byte[] hash = Digests.digest(data, algorighm);
+        return toHex(hash);
+    }
+
+    /**
+     * Hash the remaining bytes of a buffer, e.g. a region of a
+     * memory-mapped file. The position of the buffer is not changed.
+     *
+     * @param data
+     * @param algorithm
+     * @return
+     * @see #hash(byte[], String)
+     */
+    public static String hash(ByteBuffer data, String algorithm) {
+        return hash(new ByteBuffer[] { data }, algorithm);
+    }
+
+    /**
+     * Hash the remaining bytes of a sequence of buffers, as if they were one
+     * contiguous region, e.g. the segments of a large memory-mapped file. The
+     * positions of the buffers are not changed.
+     *
+     * @param data
+     * @param algorithm
+     * @return
+     * @see #hash(byte[], String)
+     */
+    public static String hash(ByteBuffer[] data, String algorithm) {
+        MessageDigest digest = Digests.take(algorithm);
         try {
-            digest = MessageDigest.getInstance(algorighm);
-        } catch (NoSuchAlgorithmException e) {
+            for (ByteBuffer b : data)
+                digest.update(b.duplicate());
+            return toHex(digest.digest());
+        } finally {
+            Digests.release(digest);
+        }
+    }
+
+    /**
+     * Hash the contents of a file using the SHA algorithm.
+     *
+     * @param file
+     * @return
+     * @throws RuntimeException if any IO-error occurs.
+     */
+    public static String hash(File file) {
+        return hash(file, SHA);
+    }
+
+    /**
+     * Hash the contents of a file.
+     *
+     * @param file
+     * @param algorithm
+     * @return
+     * @throws RuntimeException if any IO-error occurs.
+     * @see #hash(byte[], String)
+     */
+    public static String hash(File file, String algorithm) {
+        try {
+            return hash(new FileInputStream(file), algorithm);
+        } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
         }
-        byte[] hash = digest.digest(data);
-        return toHex(hash);
+    }
+
+    /**
+     * Hash all data read from a stream, and close the stream. The data is
+     * read in large chunks, and never held in memory as a whole.
+     *
+     * @param in
+     * @param algorithm
+     * @return
+     * @throws RuntimeException if any IO-error occurs.
+     * @see #hash(byte[], String)
+     */
+    public static String hash(InputStream in, String algorithm) {
+        return hash(in, null, algorithm);
+    }
+
+    /**
+     * Copy all data from an input stream to an output stream, hashing the
+     * data as it passes, and close both streams. This works like
+     * {@link IOUtils#pipe(InputStream, OutputStream)}, but also fingerprints
+     * the data in the same pass.
+     *
+     * @param in
+     * @param out the stream to copy to, or <code>null</code> to only hash.
+     * @param algorithm
+     * @return
+     * @throws RuntimeException if any IO-error occurs.
+     * @see #hash(byte[], String)
+     */
+    public static String hash(InputStream in, OutputStream out, String algorithm) {
+        MessageDigest digest = Digests.take(algorithm);
+        byte[] data = BufferPool.getBytes(HASH_BUFFER_SIZE);
+        try {
+            int len;
+            while ((len = in.read(data, 0, HASH_BUFFER_SIZE)) != -1) {
+                digest.update(data, 0, len);
+                if (out != null)
+                    out.write(data, 0, len);
+            }
+            if (out != null)
+                out.flush();
+            return toHex(digest.digest());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Digests.release(digest);
+            BufferPool.release(data);
+            try { in.close(); } catch (IOException e) { e.printStackTrace(); }
+            if (out != null)
+                try { out.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    /**
+     * Hash all data read from a channel, and close the channel.
+     *
+     * @param in
+     * @param algorithm
+     * @return
+     * @throws RuntimeException if any IO-error occurs.
+     * @see #hash(byte[], String)
+     */
+    public static String hash(ReadableByteChannel in, String algorithm) {
+        MessageDigest digest = Digests.take(algorithm);
+        byte[] data = BufferPool.getBytes(HASH_BUFFER_SIZE);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data, 0, HASH_BUFFER_SIZE);
+            while (in.read(buf) != -1) {
+                digest.update(data, 0, buf.position());
+                buf.clear().limit(HASH_BUFFER_SIZE);
+            }
+            return toHex(digest.digest());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Digests.release(digest);
+            BufferPool.release(data);
+            try { in.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    private static final int HASH_BUFFER_SIZE = 256 * 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The value of each ASCII hex-digit, or -1 for other characters.
+     */
+    private static final byte[] HEX_VALUES = new byte[128];
+    static {
+        Arrays.fill(HEX_VALUES, (byte)-1);
+        for (int n = 0; n < 16; n++) {
+            HEX_VALUES[HEX_DIGITS[n]] = (byte)n;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[n])] = (byte)n;
+        }
     }
 
     /**
@@ -113,12 +301,136 @@ public final class StringUtils {
      * @return
      */
     public static String toHex(byte[] data) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : data) {
-            sb.append(nibbleToHex(b >>> 4));
-            sb.append(nibbleToHex(b));
+        char[] hex = new char[data.length * 2];
+        toHex(data, 0, data.length, hex, 0);
+        return new String(hex);
+    }
+
+    /**
+     * Convert data to hex-digits, written to a character array.
+     *
+     * @param data
+     * @param off the first byte to convert.
+     * @param len the number of bytes to convert.
+     * @param dst
+     * @param dstOff where to write the first digit.
+     * @return the index after the last digit written.
+     */
+    public static int toHex(byte[] data, int off, int len, char[] dst, int dstOff) {
+        for (int n = off; n < off + len; n++) {
+            int b = data[n];
+            dst[dstOff++] = HEX_DIGITS[(b >>> 4) & 0xf];
+            dst[dstOff++] = HEX_DIGITS[b & 0xf];
         }
-        return sb.toString();
+        return dstOff;
+    }
+
+    /**
+     * Convert data to hex-digits, written as ASCII to a byte array.
+     *
+     * @param data
+     * @param off the first byte to convert.
+     * @param len the number of bytes to convert.
+     * @param dst
+     * @param dstOff where to write the first digit.
+     * @return the index after the last digit written.
+     */
+    public static int toHex(byte[] data, int off, int len, byte[] dst, int dstOff) {
+        for (int n = off; n < off + len; n++) {
+            int b = data[n];
+            dst[dstOff++] = (byte)HEX_DIGITS[(b >>> 4) & 0xf];
+            dst[dstOff++] = (byte)HEX_DIGITS[b & 0xf];
+        }
+        return dstOff;
+    }
+
+    /**
+     * Convert the remaining bytes of a buffer to hex-digits, written as ASCII
+     * to another buffer. The positions of both buffers are advanced.
+     *
+     * @param data
+     * @param dst
+     * @throws BufferOverflowException if there is not room for all
+     *  the digits in the destination buffer.
+     */
+    public static void toHex(ByteBuffer data, ByteBuffer dst) {
+        if (dst.remaining() < data.remaining() * 2)
+            throw new BufferOverflowException();
+        while (data.hasRemaining()) {
+            int b = data.get();
+            dst.put((byte)HEX_DIGITS[(b >>> 4) & 0xf]);
+            dst.put((byte)HEX_DIGITS[b & 0xf]);
+        }
+    }
+
+    /**
+     * Convert a string of hex-digits to the data it represents. Both upper
+     * and lower case digits are accepted.
+     *
+     * @param hex
+     * @return
+     * @throws IllegalArgumentException if the string is not an even number
+     *  of hex-digits.
+     */
+    public static byte[] fromHex(CharSequence hex) {
+        byte[] data = new byte[hexLength(hex)];
+        fromHex(hex, data, 0);
+        return data;
+    }
+
+    /**
+     * Convert a string of hex-digits to the data it represents, written to a
+     * byte array.
+     *
+     * @param hex
+     * @param dst
+     * @param off where to write the first byte.
+     * @return the index after the last byte written.
+     * @throws IllegalArgumentException if the string is not an even number
+     *  of hex-digits.
+     */
+    public static int fromHex(CharSequence hex, byte[] dst, int off) {
+        int len = hexLength(hex);
+        if (off + len > dst.length)
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len);
+        for (int n = 0; n < len; n++)
+            dst[off++] = hexByte(hex, n * 2);
+        return off;
+    }
+
+    /**
+     * Convert a string of hex-digits to the data it represents, written to a
+     * buffer. The position of the buffer is advanced.
+     *
+     * @param hex
+     * @param dst
+     * @throws IllegalArgumentException if the string is not an even number
+     *  of hex-digits.
+     */
+    public static void fromHex(CharSequence hex, ByteBuffer dst) {
+        int len = hexLength(hex);
+        if (dst.remaining() < len)
+            throw new BufferOverflowException();
+        for (int n = 0; n < len; n++)
+            dst.put(hexByte(hex, n * 2));
+    }
+
+    private static int hexLength(CharSequence hex) {
+        if (hex.length() % 2 != 0)
+            throw new IllegalArgumentException("Odd number of hex-digits: " + hex.length());
+        return hex.length() / 2;
+    }
+
+    private static byte hexByte(CharSequence hex, int pos) {
+        return (byte)((hexValue(hex, pos) << 4) | hexValue(hex, pos + 1));
+    }
+
+    private static int hexValue(CharSequence hex, int pos) {
+        char c = hex.charAt(pos);
+        int value = c < 128 ? HEX_VALUES[c] : -1;
+        if (value < 0)
+            throw new IllegalArgumentException("Not a hex-digit at " + pos + ": '" + c + "'");
+        return value;
     }
 
     /**
@@ -129,7 +441,6 @@ public final class StringUtils {
      * @return
      */
     public static char nibbleToHex(int value) {
-        value &= 0xf;
-        return (char)(value > 9 ? 'a' + (value - 10) : '0' + value);
+        return HEX_DIGITS[value & 0xf];
     }
 }
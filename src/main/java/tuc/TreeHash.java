@@ -0,0 +1,240 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tuc.file.MappedFile;
+
+/**
+ * Hashes large files in parallel. The file is split into fixed-size chunks,
+ * which are memory-mapped and hashed by the tasks of a {@link ForkJoinPool}.
+ * The chunk hashes are then combined into a root hash, forming a binary hash
+ * tree (like the Merkle tree hash of RFC 6962):
+ * <pre>
+ * leaf = H(0x00 || chunk)
+ * node = H(0x01 || left || right)
+ * </pre>
+ * A node without a right sibling is promoted to the next level unchanged.
+ * The root of a file of one chunk is that chunk's leaf hash, and the root of
+ * an empty file is the hash of no data.<p>
+ *
+ * The root hash depends on the chunk size, and is not the same as the plain
+ * hash of the file (see {@link StringUtils#hash(File, String)}). The chunk
+ * hashes can be compared between two versions of a file to find the chunks
+ * that differ.
+ *
+ * @author torkjelh
+ */
+public class TreeHash {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static ForkJoinPool defaultPool;
+
+    private final String algorithm;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a tree hash using the SHA algorithm and the default chunk size.
+     */
+    public TreeHash() {
+        this(StringUtils.SHA, DEFAULT_CHUNK_SIZE, null);
+    }
+
+    /**
+     * Create a tree hash.
+     *
+     * @param algorithm an algorithm supported by {@link MessageDigest}.
+     * @param chunkSize
+     * @param pool the pool to hash in, or <code>null</code> to use a shared
+     *  default pool.
+     */
+    public TreeHash(String algorithm, int chunkSize, ForkJoinPool pool) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize: " + chunkSize);
+        // fail at once if the algorithm is not supported.
+        Digests.release(Digests.take(algorithm));
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    public Result hash(File file) {
+        return hash(file.toPath());
+    }
+
+    /**
+     * Hash a file.
+     *
+     * @param path
+     * @return
+     * @throws RuntimeException if the file can not be read.
+     */
+    public Result hash(Path path) {
+        // segments hold a whole number of chunks, so no chunk spans two.
+        int segmentSize = chunkSize * Math.max(1, MappedFile.DEFAULT_SEGMENT_SIZE / chunkSize);
+        MappedFile file = new MappedFile(path, segmentSize);
+        try {
+            int count = (int)((file.size() + chunkSize - 1) / chunkSize);
+            byte[][] chunks = new byte[count][];
+            if (count > 0)
+                (pool != null ? pool : defaultPool()).invoke(new ChunkTask(file, chunks, 0, count));
+            return new Result(chunkSize, root(chunks), chunks);
+        } finally {
+            file.close();
+        }
+    }
+
+    private byte[] root(byte[][] chunks) {
+        MessageDigest digest = Digests.take(algorithm);
+        try {
+            if (chunks.length == 0)
+                return digest.digest();
+            byte[][] level = chunks;
+            while (level.length > 1) {
+                byte[][] next = new byte[(level.length + 1) / 2][];
+                for (int n = 0; n < level.length / 2; n++) {
+                    digest.update((byte)1);
+                    digest.update(level[2 * n]);
+                    digest.update(level[2 * n + 1]);
+                    next[n] = digest.digest();
+                }
+                if (level.length % 2 == 1)
+                    next[next.length - 1] = level[level.length - 1];
+                level = next;
+            }
+            return level[0];
+        } finally {
+            Digests.release(digest);
+        }
+    }
+
+    private final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MappedFile file;
+        private final byte[][] chunks;
+        private final int from;
+        private final int to;
+
+        ChunkTask(MappedFile file, byte[][] chunks, int from, int to) {
+            this.file = file;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkTask(file, chunks, from, mid), new ChunkTask(file, chunks, mid, to));
+                return;
+            }
+            long offset = (long)from * chunkSize;
+            ByteBuffer data = file.slice(offset, (int)Math.min(chunkSize, file.size() - offset));
+            MessageDigest digest = Digests.take(algorithm);
+            try {
+                digest.update((byte)0);
+                digest.update(data);
+                chunks[from] = digest.digest();
+            } finally {
+                Digests.release(digest);
+            }
+        }
+    }
+
+    private static synchronized ForkJoinPool defaultPool() {
+        if (defaultPool == null)
+            defaultPool = new ForkJoinPool();
+        return defaultPool;
+    }
+
+    /**
+     * The result of hashing a file.
+     */
+    public static final class Result {
+
+        private final int chunkSize;
+        private final byte[] root;
+        private final byte[][] chunks;
+
+        Result(int chunkSize, byte[] root, byte[][] chunks) {
+            this.chunkSize = chunkSize;
+            this.root = root;
+            this.chunks = chunks;
+        }
+
+        /**
+         * Get the root hash, as a string of hex-digits.
+         *
+         * @return
+         */
+        public String getRoot() {
+            return StringUtils.toHex(root);
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public int getChunkCount() {
+            return chunks.length;
+        }
+
+        /**
+         * Get the leaf hash of a chunk, as a string of hex-digits.
+         *
+         * @param n
+         * @return
+         */
+        public String getChunkHash(int n) {
+            return StringUtils.toHex(chunks[n]);
+        }
+
+        /**
+         * Get the leaf hash of a chunk.
+         *
+         * @param n
+         * @return a copy of the hash.
+         */
+        public byte[] getChunkDigest(int n) {
+            return chunks[n].clone();
+        }
+
+        public String toString() {
+            return getRoot();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * The xxHash64 non-cryptographic hash function. It is many times faster than
+ * the {@link java.security.MessageDigest} algorithms used by
+ * {@link StringUtils#hash(byte[], String)}, and suited for hash keys,
+ * bucketing and checksums, but not where an adversary may choose the input.
+ * Each seed gives a different hash function of the family.<p>
+ *
+ * The static methods hash data in one call, and return the hash as a
+ * <code>long</code>. Data arriving in pieces can be hashed with an instance,
+ * which implements {@link Checksum}:
+ * <pre>
+ * XxHash64 h = new XxHash64();
+ * h.update(header, 0, header.length);
+ * h.update(body, 0, body.length);
+ * long hash = h.getValue();
+ * </pre>
+ *
+ * The results are the same as those of the reference implementation.
+ *
+ * @author torkjelh
+ */
+public final class XxHash64 implements Checksum {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private final long seed;
+    private long v1, v2, v3, v4;
+    private long length;
+    private final byte[] buffer = new byte[32];
+    private int buffered;
+
+    /**
+     * Create a streaming hash with seed 0.
+     */
+    public XxHash64() {
+        this(0);
+    }
+
+    /**
+     * Create a streaming hash.
+     *
+     * @param seed
+     */
+    public XxHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    public static long hash(byte[] data) {
+        return hash(data, 0, data.length, 0);
+    }
+
+    /**
+     * Hash part of an array.
+     *
+     * @param data
+     * @param off
+     * @param len
+     * @param seed
+     * @return
+     */
+    public static long hash(byte[] data, int off, int len, long seed) {
+        if (off < 0 || len < 0 || off + len > data.length)
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len);
+        int end = off + len;
+        long h;
+        if (len >= 32) {
+            long a = seed + P1 + P2, b = seed + P2, c = seed, d = seed - P1;
+            for (int limit = end - 32; off <= limit; off += 32) {
+                a = round(a, getLong(data, off));
+                b = round(b, getLong(data, off + 8));
+                c = round(c, getLong(data, off + 16));
+                d = round(d, getLong(data, off + 24));
+            }
+            h = merge(a, b, c, d);
+        } else
+            h = seed + P5;
+        h += len;
+        for (; off + 8 <= end; off += 8)
+            h = mix8(h, getLong(data, off));
+        if (off + 4 <= end) {
+            h = mix4(h, getInt(data, off));
+            off += 4;
+        }
+        for (; off < end; off++)
+            h = mix1(h, data[off]);
+        return avalanche(h);
+    }
+
+    public static long hash(ByteBuffer data) {
+        return hash(data, 0);
+    }
+
+    /**
+     * Hash the remaining bytes of a buffer. The position of the buffer is not
+     * changed.
+     *
+     * @param data
+     * @param seed
+     * @return
+     */
+    public static long hash(ByteBuffer data, long seed) {
+        if (data.hasArray())
+            return hash(data.array(), data.arrayOffset() + data.position(), data.remaining(), seed);
+        boolean swap = data.order() != ByteOrder.LITTLE_ENDIAN;
+        int off = data.position();
+        int end = data.limit();
+        long h;
+        if (end - off >= 32) {
+            long a = seed + P1 + P2, b = seed + P2, c = seed, d = seed - P1;
+            for (int limit = end - 32; off <= limit; off += 32) {
+                a = round(a, getLong(data, off, swap));
+                b = round(b, getLong(data, off + 8, swap));
+                c = round(c, getLong(data, off + 16, swap));
+                d = round(d, getLong(data, off + 24, swap));
+            }
+            h = merge(a, b, c, d);
+        } else
+            h = seed + P5;
+        h += data.remaining();
+        for (; off + 8 <= end; off += 8)
+            h = mix8(h, getLong(data, off, swap));
+        if (off + 4 <= end) {
+            int i = data.getInt(off);
+            h = mix4(h, (swap ? Integer.reverseBytes(i) : i) & 0xFFFFFFFFL);
+            off += 4;
+        }
+        for (; off < end; off++)
+            h = mix1(h, data.get(off));
+        return avalanche(h);
+    }
+
+    public static long hash(CharSequence data) {
+        return hash(data, 0);
+    }
+
+    /**
+     * Hash a sequence of characters, without encoding it. The result is the
+     * same as hashing the UTF-16LE encoding of the characters.
+     *
+     * @param data
+     * @param seed
+     * @return
+     */
+    public static long hash(CharSequence data, long seed) {
+        int off = 0;
+        int end = data.length();
+        long h;
+        if (end >= 16) {
+            long a = seed + P1 + P2, b = seed + P2, c = seed, d = seed - P1;
+            for (int limit = end - 16; off <= limit; off += 16) {
+                a = round(a, getLong(data, off));
+                b = round(b, getLong(data, off + 4));
+                c = round(c, getLong(data, off + 8));
+                d = round(d, getLong(data, off + 12));
+            }
+            h = merge(a, b, c, d);
+        } else
+            h = seed + P5;
+        h += 2L * end;
+        for (; off + 4 <= end; off += 4)
+            h = mix8(h, getLong(data, off));
+        if (off + 2 <= end) {
+            h = mix4(h, data.charAt(off) | (long)data.charAt(off + 1) << 16);
+            off += 2;
+        }
+        if (off < end) {
+            char ch = data.charAt(off);
+            h = mix1(mix1(h, (byte)ch), (byte)(ch >>> 8));
+        }
+        return avalanche(h);
+    }
+
+    /**
+     * Hash all data read from a stream, and close the stream.
+     *
+     * @param in
+     * @param seed
+     * @return
+     * @throws RuntimeException if any IO-error occurs.
+     */
+    public static long hash(InputStream in, long seed) {
+        XxHash64 h = new XxHash64(seed);
+        byte[] data = BufferPool.getBytes(IOUtils.DEFAULT_BUFFER_SIZE);
+        try {
+            int len;
+            while ((len = in.read(data)) != -1)
+                h.update(data, 0, len);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            BufferPool.release(data);
+            try { in.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+        return h.getValue();
+    }
+
+    @Override
+    public void update(int b) {
+        buffer[buffered++] = (byte)b;
+        length++;
+        if (buffered == 32) {
+            consume(buffer, 0);
+            buffered = 0;
+        }
+    }
+
+    @Override
+    public void update(byte[] data, int off, int len) {
+        if (off < 0 || len < 0 || off + len > data.length)
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len);
+        length += len;
+        int end = off + len;
+        if (buffered > 0) {
+            int n = Math.min(32 - buffered, len);
+            System.arraycopy(data, off, buffer, buffered, n);
+            buffered += n;
+            off += n;
+            if (buffered < 32)
+                return;
+            consume(buffer, 0);
+            buffered = 0;
+        }
+        for (; off + 32 <= end; off += 32)
+            consume(data, off);
+        System.arraycopy(data, off, buffer, 0, end - off);
+        buffered = end - off;
+    }
+
+    /**
+     * Update the hash with the remaining bytes of a buffer, advancing its
+     * position.
+     *
+     * @param data
+     */
+    public void update(ByteBuffer data) {
+        if (data.hasArray()) {
+            update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+        while (data.hasRemaining()) {
+            int n = Math.min(32 - buffered, data.remaining());
+            data.get(buffer, buffered, n);
+            buffered += n;
+            length += n;
+            if (buffered == 32) {
+                consume(buffer, 0);
+                buffered = 0;
+            }
+        }
+    }
+
+    private void consume(byte[] data, int off) {
+        v1 = round(v1, getLong(data, off));
+        v2 = round(v2, getLong(data, off + 8));
+        v3 = round(v3, getLong(data, off + 16));
+        v4 = round(v4, getLong(data, off + 24));
+    }
+
+    /**
+     * Get the hash of the data seen so far. The hash may be updated further
+     * after this.
+     */
+    @Override
+    public long getValue() {
+        long h = length >= 32 ? merge(v1, v2, v3, v4) : seed + P5;
+        h += length;
+        int off = 0;
+        for (; off + 8 <= buffered; off += 8)
+            h = mix8(h, getLong(buffer, off));
+        if (off + 4 <= buffered) {
+            h = mix4(h, getInt(buffer, off));
+            off += 4;
+        }
+        for (; off < buffered; off++)
+            h = mix1(h, buffer[off]);
+        return avalanche(h);
+    }
+
+    @Override
+    public void reset() {
+        v1 = seed + P1 + P2;
+        v2 = seed + P2;
+        v3 = seed;
+        v4 = seed - P1;
+        length = 0;
+        buffered = 0;
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * P2, 31) * P1;
+    }
+
+    private static long merge(long a, long b, long c, long d) {
+        long h = Long.rotateLeft(a, 1) + Long.rotateLeft(b, 7)
+            + Long.rotateLeft(c, 12) + Long.rotateLeft(d, 18);
+        h = (h ^ round(0, a)) * P1 + P4;
+        h = (h ^ round(0, b)) * P1 + P4;
+        h = (h ^ round(0, c)) * P1 + P4;
+        h = (h ^ round(0, d)) * P1 + P4;
+        return h;
+    }
+
+    private static long mix8(long h, long k) {
+        return Long.rotateLeft(h ^ round(0, k), 27) * P1 + P4;
+    }
+
+    private static long mix4(long h, long k) {
+        return Long.rotateLeft(h ^ (k * P1), 23) * P2 + P3;
+    }
+
+    private static long mix1(long h, byte b) {
+        return Long.rotateLeft(h ^ ((b & 0xFF) * P5), 11) * P1;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16
+            | (b[i + 3] & 0xFFL) << 24 | (b[i + 4] & 0xFFL) << 32 | (b[i + 5] & 0xFFL) << 40
+            | (b[i + 6] & 0xFFL) << 48 | (b[i + 7] & 0xFFL) << 56;
+    }
+
+    private static long getInt(byte[] b, int i) {
+        return (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16
+            | (b[i + 3] & 0xFFL) << 24;
+    }
+
+    private static long getLong(ByteBuffer b, int i, boolean swap) {
+        long l = b.getLong(i);
+        return swap ? Long.reverseBytes(l) : l;
+    }
+
+    private static long getLong(CharSequence s, int i) {
+        return s.charAt(i) | (long)s.charAt(i + 1) << 16
+            | (long)s.charAt(i + 2) << 32 | (long)s.charAt(i + 3) << 48;
+    }
+}
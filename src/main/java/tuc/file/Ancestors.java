@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A directory being traversed, linked to the directories on the path to it.
+ * As in {@link FileTreeWalker}, a directory should not be entered if it is on
+ * its own path, so link cycles do not lead to endless traversals.
+ *
+ * @author torkjelh
+ */
+final class Ancestors {
+
+    final Path path;
+    final Object key;
+    final Ancestors parent;
+
+    Ancestors(FileEntry dir, Ancestors parent) {
+        this(dir.toPath(), dir.attributes().fileKey(), parent);
+    }
+
+    private Ancestors(Path path, Object key, Ancestors parent) {
+        this.path = path;
+        this.key = key;
+        this.parent = parent;
+    }
+
+    static Ancestors root(Path root) {
+        FileEntry r = FileTreeWalker.entry(root);
+        return r != null ? new Ancestors(r, null) : new Ancestors(root, null, null);
+    }
+
+    /**
+     * Check if a directory is this one or one of its ancestors, i.e. if
+     * entering it would start a cycle.
+     */
+    boolean contains(FileEntry d) {
+        Object k = d.attributes().fileKey();
+        if (k != null) {
+            for (Ancestors a = this; a != null; a = a.parent)
+                if (k.equals(a.key))
+                    return true;
+            return false;
+        }
+
+        // no file keys on this platform; only links can lead to cycles.
+        if (!Files.isSymbolicLink(d.toPath()))
+            return false;
+        try {
+            for (Ancestors a = this; a != null; a = a.parent)
+                if (Files.isSameFile(a.path, d.toPath()))
+                    return true;
+        } catch (IOException e) {
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Atomically replaces a batch of files, syncing each affected directory only
+ * once. Each file is written to a temporary file in its directory as it is
+ * added; the temporary files are moved into place when the batch is
+ * committed.
+ * <pre>
+ * AtomicFileBatch batch = new AtomicFileBatch();
+ * try {
+ *   for (...)
+ *     batch.add(file, in);
+ *   batch.commit();
+ * } finally {
+ *   batch.abort();
+ * }
+ * </pre>
+ *
+ * Each file is replaced atomically, but the batch as a whole is not: a crash
+ * during {@link #commit()} may leave some files replaced and others not.
+ *
+ * @author torkjelh
+ * @see FileUtils#saveFileAtomic(File, InputStream, boolean)
+ */
+public class AtomicFileBatch {
+
+    private final boolean durable;
+
+    private final Map<File, File> pending = new LinkedHashMap<File, File>();
+
+    /**
+     * Create a durable batch.
+     */
+    public AtomicFileBatch() {
+        this(true);
+    }
+
+    /**
+     * Create a batch.
+     *
+     * @param durable whether the files should be forced to disk, and the
+     *  directories synced, before {@link #commit()} returns.
+     */
+    public AtomicFileBatch(boolean durable) {
+        this.durable = durable;
+    }
+
+    /**
+     * Write the contents of a stream to a temporary file, which will replace
+     * the given file when the batch is committed. Adding the same file twice
+     * replaces the earlier contents. The stream is closed.
+     *
+     * @param file
+     * @param is
+     * @throws RuntimeException if any IO-error occurs.
+     */
+    public void add(File file, InputStream is) {
+        file = file.getAbsoluteFile();
+        File tmp = FileUtils.saveTempSibling(file, is, durable);
+        File old = pending.put(file, tmp);
+        if (old != null)
+            old.delete();
+    }
+
+    /**
+     * Move all added files into place, then sync their directories.
+     *
+     * @throws RuntimeException if any IO-error occurs. The files not yet
+     *  moved into place are discarded.
+     */
+    public void commit() {
+        Set<File> dirs = new LinkedHashSet<File>();
+        try {
+            for (Map.Entry<File, File> e : pending.entrySet()) {
+                FileUtils.publish(e.getValue(), e.getKey());
+                dirs.add(FileUtils.parent(e.getKey()));
+                e.setValue(null);
+            }
+        } finally {
+            abort();
+        }
+        if (durable)
+            for (File dir : dirs)
+                FileUtils.syncDirectory(dir);
+    }
+
+    /**
+     * Discard all files added since the last commit. Does nothing after a
+     * successful commit.
+     */
+    public void abort() {
+        for (File tmp : pending.values())
+            if (tmp != null)
+                tmp.delete();
+        pending.clear();
+    }
+}
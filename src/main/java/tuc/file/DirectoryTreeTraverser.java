@@ -25,11 +25,9 @@
  */
 package tuc.file;
 
-import java.io.File;
+import java.io.Closeable;
 import java.util.Iterator;
-import java.util.Stack;
 
-import tuc.collections.ArrayIterator;
 import tuc.collections.ItemProducer;
 import tuc.collections.ItemProducerIterator;
 
@@ -43,16 +41,29 @@ import tuc.collections.ItemProducerIterator;
  * }
  * </pre>
  *
+ * This is a thin adapter producing the paths of the entries found by a
+ * {@link FileTreeWalker}. Use the walker directly to get at the file
+ * attributes as well. Call {@link #close()} to release the open directory
+ * streams if the traversal is abandoned before it is finished.
+ *
  * @author torkjelh
  */
-public class DirectoryTreeTraverser implements Iterable<String>, ItemProducer<String> {
-
-    private Stack<Directory> stack = new Stack<Directory>();
+public class DirectoryTreeTraverser implements Iterable<String>, ItemProducer<String>, Closeable {
 
-    private Directory dir;
+    private final FileTreeWalker walker;
 
     public DirectoryTreeTraverser(String directory) {
-        dir = new Directory(directory);
+        this(new FileTreeWalker(directory));
+    }
+
+    /**
+     * Create a traverser producing the paths of the files found by a
+     * (possibly configured) walker.
+     *
+     * @param walker
+     */
+    public DirectoryTreeTraverser(FileTreeWalker walker) {
+        this.walker = walker;
     }
 
     @Override
@@ -62,44 +73,12 @@ public class DirectoryTreeTraverser implements Iterable<String>, ItemProducer<St
 
     @Override
     public String produce() {
-
-        // depth-first traversal of directory tree.
-        File produced = null;
-        while (produced == null) {
-
-            // are we done with this directory?
-            while (dir != null && !dir.hasNext())
-                dir = stack.isEmpty() ? null : stack.pop();
-
-            // are we done?
-            if (dir == null)
-                return null;
-
-            // descend into directories
-            File next = null;
-            while (dir.hasNext() && (next = dir.next()).isDirectory()) {
-                stack.push(dir);
-                dir = new Directory(next);
-            }
-
-            // did we find a file?
-            if (next.isFile()) {
-                produced = next;
-            }
-        }
-
-        return produced.getPath();
+        FileEntry next = walker.produce();
+        return next != null ? next.getPath() : null;
     }
 
-    private static class Directory extends ArrayIterator<File> {
-
-        Directory(File dir) {
-            super(dir.listFiles());
-        }
-
-        Directory(String path) {
-            this(new File(path));
-        }
-
+    @Override
+    public void close() {
+        walker.close();
     }
 }
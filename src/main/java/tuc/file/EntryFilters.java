@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.regex.Pattern;
+
+/**
+ * Factory methods for common {@link EntryFilter}s.
+ * <pre>
+ * FileTreeWalker w = new FileTreeWalker("/src/")
+ *     .filter(EntryFilters.name("*.{java,xml}"))
+ *     .prune(EntryFilters.name(".git", "node_modules", "target"));
+ * </pre>
+ *
+ * @author torkjelh
+ */
+public final class EntryFilters {
+
+    private EntryFilters() { }
+
+    /**
+     * A filter accepting all entries.
+     */
+    public static final EntryFilter ALL = new EntryFilter() {
+        @Override
+        public boolean accept(FileEntry entry) {
+            return true;
+        }
+    };
+
+    /**
+     * Create a filter accepting entries whose file name matches any of the
+     * given glob patterns. See {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     * for the glob syntax.
+     *
+     * @param globs
+     * @return
+     */
+    public static EntryFilter name(String... globs) {
+        final PathMatcher[] matchers = new PathMatcher[globs.length];
+        for (int n = 0; n < globs.length; n++)
+            matchers[n] = FileSystems.getDefault().getPathMatcher("glob:" + globs[n]);
+        return new EntryFilter() {
+            @Override
+            public boolean accept(FileEntry entry) {
+                Path name = entry.toPath().getFileName();
+                for (PathMatcher m : matchers)
+                    if (name != null && m.matches(name))
+                        return true;
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Create a filter accepting entries whose file name matches the given
+     * regular expression.
+     *
+     * @param regex
+     * @return
+     */
+    public static EntryFilter nameRegex(String regex) {
+        final Pattern pattern = Pattern.compile(regex);
+        return new EntryFilter() {
+            @Override
+            public boolean accept(FileEntry entry) {
+                Path name = entry.toPath().getFileName();
+                return name != null && pattern.matcher(name.toString()).matches();
+            }
+        };
+    }
+
+    /**
+     * Create a filter accepting entries whose full path is matched by the
+     * given matcher.
+     *
+     * @param matcher
+     * @return
+     */
+    public static EntryFilter path(final PathMatcher matcher) {
+        return new EntryFilter() {
+            @Override
+            public boolean accept(FileEntry entry) {
+                return matcher.matches(entry.toPath());
+            }
+        };
+    }
+
+    public static EntryFilter not(final EntryFilter filter) {
+        return new EntryFilter() {
+            @Override
+            public boolean accept(FileEntry entry) {
+                return !filter.accept(entry);
+            }
+        };
+    }
+
+    public static EntryFilter anyOf(final EntryFilter... filters) {
+        return new EntryFilter() {
+            @Override
+            public boolean accept(FileEntry entry) {
+                for (EntryFilter f : filters)
+                    if (f.accept(entry))
+                        return true;
+                return false;
+            }
+        };
+    }
+
+    public static EntryFilter allOf(final EntryFilter... filters) {
+        return new EntryFilter() {
+            @Override
+            public boolean accept(FileEntry entry) {
+                for (EntryFilter f : filters)
+                    if (!f.accept(entry))
+                        return false;
+                return true;
+            }
+        };
+    }
+}
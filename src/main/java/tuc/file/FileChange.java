@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+/**
+ * A change to a file, as reported by an {@link IncrementalScanner}.
+ *
+ * @author torkjelh
+ */
+public final class FileChange {
+
+    public enum Type { ADDED, MODIFIED, DELETED }
+
+    private final Type type;
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final String hash;
+
+    public FileChange(Type type, String path, long size, long lastModified, String hash) {
+        this.type = type;
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the size of the file. For deleted files this is the size recorded
+     * by the previous scan.
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Get the last modification time of the file, in milliseconds since the
+     * epoch. For deleted files this is the time recorded by the previous scan.
+     *
+     * @return
+     */
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get the hash of the file contents.
+     *
+     * @return the hash, or <code>null</code> if the scanner does not hash files.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public String toString() {
+        return type + " " + path;
+    }
+}
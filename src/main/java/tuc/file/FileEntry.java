@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A file or directory found while traversing a directory tree, along with the
+ * attributes that were read when it was found. The attributes are a snapshot;
+ * they are not refreshed if the file changes.
+ *
+ * @author torkjelh
+ */
+public final class FileEntry {
+
+    private final Path path;
+    private final BasicFileAttributes attrs;
+
+    public FileEntry(Path path, BasicFileAttributes attrs) {
+        this.path = path;
+        this.attrs = attrs;
+    }
+
+    /**
+     * Get the path of the entry, on the same form as {@link File#getPath()}.
+     *
+     * @return
+     */
+    public String getPath() {
+        return path.toString();
+    }
+
+    public Path toPath() {
+        return path;
+    }
+
+    public File toFile() {
+        return path.toFile();
+    }
+
+    public BasicFileAttributes attributes() {
+        return attrs;
+    }
+
+    /**
+     * Get the size of the entry in bytes.
+     *
+     * @return
+     */
+    public long size() {
+        return attrs.size();
+    }
+
+    /**
+     * Get the last modification time, in milliseconds since the epoch.
+     *
+     * @return
+     */
+    public long lastModified() {
+        return attrs.lastModifiedTime().toMillis();
+    }
+
+    public boolean isDirectory() {
+        return attrs.isDirectory();
+    }
+
+    /**
+     * Check if this is a regular file. Works like {@link File#isFile()}.
+     *
+     * @return
+     */
+    public boolean isFile() {
+        return attrs.isRegularFile();
+    }
+
+    public String toString() {
+        return getPath();
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import tuc.collections.ArrayIterator;
+import tuc.collections.ItemProducer;
+import tuc.collections.ItemProducerIterator;
+
+/**
+ * Depth-first traversal of the files in a directory tree, based on
+ * {@link java.nio.file}. Each file is produced as a {@link FileEntry}, carrying
+ * the attributes (size, modification time, ...) read when the file was found.
+ * <pre>
+ * for (FileEntry f : new FileTreeWalker("/home/foo/")) {
+ *   System.out.println(f + ": " + f.size());
+ * }
+ * </pre>
+ *
+ * The attributes of each directory entry are read once, as the directory is
+ * listed, and are used both to decide whether to descend into the entry and
+ * by the consumer. The older {@link java.io.File} based traversal needed a
+ * separate stat call for each of {@link java.io.File#isDirectory()} and
+ * {@link java.io.File#isFile()}.<p>
+ *
+ * Which files are produced can be restricted with {@link #filter(EntryFilter)},
+ * and which directories are descended into with {@link #prune(EntryFilter)} and
+ * {@link #maxDepth(int)}. The filters are applied to each entry as it is read,
+ * so pruned directories are never opened:
+ * <pre>
+ * FileTreeWalker w = new FileTreeWalker("/src/")
+ *     .filter(EntryFilters.name("*.java"))
+ *     .prune(EntryFilters.name(".git", "target"));
+ * </pre>
+ *
+ * By default symbolic links are followed, and directories already on the
+ * current path are not entered again, so link cycles do not lead to endless
+ * traversals. See {@link #followLinks(boolean)}.<p>
+ *
+ * Directories are read lazily from an open {@link DirectoryStream}, so memory
+ * use does not depend on the number of entries in a directory. At most one
+ * stream is open per level of the current path, and each stream is closed as
+ * soon as it is exhausted. To avoid running out of file descriptors in deep
+ * trees, the number of open streams is capped (see
+ * {@link #maxOpenDirectories(int)}); directories opened beyond the cap are
+ * read into memory and closed at once. Call {@link #close()} if the
+ * traversal is abandoned before it is finished.<p>
+ *
+ * Directories which can not be read are skipped, as are entries whose
+ * attributes can not be read (e.g. dangling symbolic links).
+ *
+ * @author torkjelh
+ * @see DirectoryTreeTraverser
+ */
+public class FileTreeWalker implements Iterable<FileEntry>, ItemProducer<FileEntry>, Closeable {
+
+    public static final int DEFAULT_MAX_OPEN_DIRECTORIES = 32;
+
+    private Deque<Directory> stack = new ArrayDeque<Directory>();
+
+    private final Path root;
+
+    private Directory dir;
+
+    private final Set<Object> ancestors = new HashSet<Object>();
+
+    private EntryFilter filter;
+
+    private EntryFilter prune;
+
+    private int maxDepth = Integer.MAX_VALUE;
+
+    private LinkOption[] linkOptions = new LinkOption[0];
+
+    private int maxOpen = DEFAULT_MAX_OPEN_DIRECTORIES;
+
+    private int open;
+
+    private boolean started;
+
+    public FileTreeWalker(String directory) {
+        this(Paths.get(directory));
+    }
+
+    public FileTreeWalker(Path directory) {
+        root = directory;
+    }
+
+    /**
+     * Set the maximum number of directory streams kept open at the same
+     * time.
+     *
+     * @param max at least 1.
+     * @return this walker.
+     */
+    public FileTreeWalker maxOpenDirectories(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("max: " + max);
+        maxOpen = max;
+        return this;
+    }
+
+    /**
+     * Only produce files accepted by the given filter.
+     *
+     * @param filter
+     * @return this walker.
+     */
+    public FileTreeWalker filter(EntryFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * Do not descend into directories accepted by the given filter.
+     *
+     * @param prune
+     * @return this walker.
+     */
+    public FileTreeWalker prune(EntryFilter prune) {
+        this.prune = prune;
+        return this;
+    }
+
+    /**
+     * Set the maximum depth of the traversal. The entries of the root
+     * directory are at depth 1, so with a max depth of 1 only the files
+     * directly in the root directory are produced.
+     *
+     * @param depth
+     * @return this walker.
+     */
+    public FileTreeWalker maxDepth(int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("depth: " + depth);
+        maxDepth = depth;
+        return this;
+    }
+
+    /**
+     * Whether to follow symbolic links (the default). When links are
+     * followed, a link to a directory is not entered if the directory is
+     * already on the current path. When links are not followed, they are
+     * neither produced nor descended into. The root directory is always
+     * resolved.
+     *
+     * @param follow
+     * @return this walker.
+     */
+    public FileTreeWalker followLinks(boolean follow) {
+        linkOptions = follow ? new LinkOption[0] : new LinkOption[] { LinkOption.NOFOLLOW_LINKS };
+        return this;
+    }
+
+    @Override
+    public Iterator<FileEntry> iterator() {
+        return new ItemProducerIterator<FileEntry>(this);
+    }
+
+    @Override
+    public FileEntry produce() {
+
+        if (!started) {
+            started = true;
+            FileEntry r = entry(root);
+            if (r != null && r.isDirectory())
+                dir = open(r);
+        }
+
+        // depth-first traversal of directory tree.
+        while (true) {
+
+            // are we done with this directory?
+            while (dir != null && !dir.hasNext()) {
+                ancestors.remove(dir.entry().attributes().fileKey());
+                dir = stack.poll();
+            }
+
+            // are we done?
+            if (dir == null)
+                return null;
+
+            // descend into directories, produce files.
+            FileEntry next = dir.next();
+            if (next.isDirectory()) {
+                if (stack.size() + 1 < maxDepth
+                        && (prune == null || !prune.accept(next))
+                        && !isAncestor(next)) {
+                    stack.push(dir);
+                    dir = open(next);
+                }
+            } else if (next.isFile() && (filter == null || filter.accept(next)))
+                return next;
+        }
+    }
+
+    /**
+     * Check if a directory is on the current path, i.e. if entering it would
+     * start a cycle.
+     */
+    private boolean isAncestor(FileEntry d) {
+        if (linkOptions.length > 0)
+            return false;
+        Object key = d.attributes().fileKey();
+        if (key != null)
+            return ancestors.contains(key);
+
+        // no file keys on this platform; only links can lead to cycles.
+        if (!Files.isSymbolicLink(d.toPath()))
+            return false;
+        try {
+            if (Files.isSameFile(dir.entry().toPath(), d.toPath()))
+                return true;
+            for (Directory a : stack)
+                if (Files.isSameFile(a.entry().toPath(), d.toPath()))
+                    return true;
+        } catch (IOException e) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Close all open directory streams, and end the traversal.
+     */
+    @Override
+    public void close() {
+        if (dir != null)
+            dir.close();
+        for (Directory d : stack)
+            d.close();
+        dir = null;
+        stack.clear();
+        ancestors.clear();
+    }
+
+    private Directory open(FileEntry d) {
+        Object key = d.attributes().fileKey();
+        if (key != null)
+            ancestors.add(key);
+        if (open < maxOpen) {
+            DirectoryStream<Path> ds;
+            try {
+                ds = Files.newDirectoryStream(d.toPath());
+            } catch (IOException e) {
+                return new BufferedDirectory(d, new FileEntry[0]);
+            }
+            return new StreamedDirectory(d, ds);
+        } else {
+            FileEntry[] entries = list(d.toPath(), linkOptions);
+            return new BufferedDirectory(d, entries != null ? entries : new FileEntry[0]);
+        }
+    }
+
+    /**
+     * List the entries of a directory, reading the attributes of each entry.
+     *
+     * @param dir
+     * @param options how to handle symbolic links.
+     * @return the entries, in the order returned by the file system, or
+     *  <code>null</code> if the directory could not be read.
+     */
+    static FileEntry[] list(Path dir, LinkOption... options) {
+        List<FileEntry> entries = new ArrayList<FileEntry>();
+        DirectoryStream<Path> ds;
+        try {
+            ds = Files.newDirectoryStream(dir);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            for (Path p : ds) {
+                FileEntry e = entry(p, options);
+                if (e != null)
+                    entries.add(e);
+            }
+        } catch (DirectoryIteratorException e) {
+            // keep the entries read before the error.
+        } finally {
+            try { ds.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+        return entries.toArray(new FileEntry[entries.size()]);
+    }
+
+    /**
+     * Read the attributes of a path.
+     *
+     * @param p
+     * @param options how to handle symbolic links.
+     * @return an entry, or <code>null</code> if the attributes could not be read.
+     */
+    static FileEntry entry(Path p, LinkOption... options) {
+        try {
+            return new FileEntry(p, Files.readAttributes(p, BasicFileAttributes.class, options));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private interface Directory extends Iterator<FileEntry> {
+
+        /**
+         * Get the entry of the directory itself.
+         */
+        FileEntry entry();
+
+        void close();
+    }
+
+    private static class BufferedDirectory extends ArrayIterator<FileEntry> implements Directory {
+
+        private final FileEntry entry;
+
+        BufferedDirectory(FileEntry entry, FileEntry[] entries) {
+            super(entries);
+            this.entry = entry;
+        }
+
+        @Override
+        public FileEntry entry() {
+            return entry;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private class StreamedDirectory implements Directory {
+
+        private final FileEntry entry;
+        private DirectoryStream<Path> ds;
+        private Iterator<Path> paths;
+        private FileEntry next;
+
+        StreamedDirectory(FileEntry entry, DirectoryStream<Path> ds) {
+            this.entry = entry;
+            this.ds = ds;
+            this.paths = ds.iterator();
+            open++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && ds != null && paths.hasNext())
+                    next = FileTreeWalker.entry(paths.next(), linkOptions);
+            } catch (DirectoryIteratorException e) {
+                // keep the entries read before the error.
+            }
+            if (next == null)
+                close();
+            return next != null;
+        }
+
+        @Override
+        public FileEntry entry() {
+            return entry;
+        }
+
+        @Override
+        public FileEntry next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            FileEntry e = next;
+            next = null;
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (ds == null)
+                return;
+            try { ds.close(); } catch (IOException e) { e.printStackTrace(); }
+            ds = null;
+            paths = null;
+            open--;
+        }
+    }
+}
@@ -25,12 +25,15 @@
  */
 package tuc.file;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 import tuc.IOUtils;
 
@@ -44,6 +47,12 @@ public final class FileUtils {
 
     private FileUtils() { }
 
+    /**
+     * The size of the buffer data is copied through when saving a stream
+     * which is not a file.
+     */
+    private static final int SAVE_BUFFER_SIZE = 1024 * 1024;
+
     /**
      * Save the contents of a stream to a temp file.
      *
@@ -63,7 +72,9 @@ public final class FileUtils {
 
     /**
      * Save the contents of a stream to the given file. The file is
-     * overwritten if it already exists.
+     * overwritten if it already exists. The output is not buffered, as
+     * {@link IOUtils#pipe(InputStream, OutputStream)} writes in large chunks,
+     * or copies directly from file to file when the input is a file.
      *
      * @param file
      * @param is
@@ -71,11 +82,121 @@ public final class FileUtils {
     public static void saveFile(File file, InputStream is) {
         OutputStream os;
         try {
-            os = new BufferedOutputStream(new FileOutputStream(file));
+            os = new FileOutputStream(file);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         IOUtils.pipe(is, os);
     }
 
+    /**
+     * Durably and atomically replace the given file with the contents of a
+     * stream.
+     *
+     * @param file
+     * @param is
+     * @see #saveFileAtomic(File, InputStream, boolean)
+     */
+    public static void saveFileAtomic(File file, InputStream is) {
+        saveFileAtomic(file, is, true);
+    }
+
+    /**
+     * Atomically replace the given file with the contents of a stream.
+     * The contents are written to a temporary file in the same directory,
+     * which is then moved into place, so readers see either the old or the
+     * new file, never a partially written one. If the save fails, the old
+     * file is left untouched. The stream is closed.<p>
+     *
+     * If <code>durable</code> is set, the new contents are forced to disk
+     * before the file is moved into place, and the directory is forced after,
+     * so the new file survives a crash once this method returns. Use an
+     * {@link AtomicFileBatch} to save many files with fewer directory syncs.
+     *
+     * @param file
+     * @param is
+     * @param durable
+     * @throws RuntimeException if any IO-error occurs.
+     */
+    public static void saveFileAtomic(File file, InputStream is, boolean durable) {
+        File tmp = saveTempSibling(file, is, durable);
+        publish(tmp, file);
+        if (durable)
+            syncDirectory(parent(file));
+    }
+
+    /**
+     * Save the contents of a stream to a new temporary file in the same
+     * directory as the given file. The stream is closed.
+     *
+     * @param file
+     * @param is
+     * @param durable whether to force the contents to disk.
+     * @return the temporary file.
+     */
+    static File saveTempSibling(File file, InputStream is, boolean durable) {
+        File tmp = null;
+        FileChannel ch = null;
+        boolean ok = false;
+        try {
+            tmp = File.createTempFile("." + file.getName() + ".", ".tmp", parent(file));
+            ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE);
+            IOUtils.copy(is, ch, SAVE_BUFFER_SIZE);
+            // the file size is the only metadata needed to read the data back.
+            if (durable)
+                ch.force(false);
+            ok = true;
+            return tmp;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (ch != null)
+                try { ch.close(); } catch (IOException e) { e.printStackTrace(); }
+            try { is.close(); } catch (IOException e) { e.printStackTrace(); }
+            if (!ok && tmp != null)
+                tmp.delete();
+        }
+    }
+
+    /**
+     * Atomically move a temporary file into place, replacing the target.
+     * The temporary file is deleted if the move fails.
+     *
+     * @param tmp
+     * @param file
+     */
+    static void publish(File tmp, File file) {
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Force changes to the entries of a directory to disk. Does nothing on
+     * platforms where directories can not be opened (e.g. Windows).
+     *
+     * @param dir
+     */
+    static void syncDirectory(File dir) {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            ch.force(true);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try { ch.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    static File parent(File file) {
+        return file.getAbsoluteFile().getParentFile();
+    }
 }
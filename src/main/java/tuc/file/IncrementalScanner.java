@@ -0,0 +1,458 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import tuc.LangUtils;
+import tuc.StringUtils;
+import tuc.file.FileChange.Type;
+
+/**
+ * Finds the files that have been added, modified or deleted in a directory
+ * tree since the previous scan. The state of the tree (path, size and
+ * modification time of every file, and optionally a hash of the contents) is
+ * kept in a compressed snapshot file, which is replaced after each complete
+ * scan. The first scan, when no snapshot exists, reports every file as added.
+ * <pre>
+ * IncrementalScanner s = new IncrementalScanner("/data/", new File("/var/data.snapshot"));
+ * for (FileChange c : s.scan())
+ *   System.out.println(c);
+ * </pre>
+ *
+ * A directory whose modification time is the same as in the snapshot has the
+ * same entries as when the snapshot was taken, so it is not listed again. The
+ * files in it are still checked for changes, and its subdirectories are still
+ * visited, since neither changing a file in place nor changing anything
+ * further down the tree touches the directory. If the files in the tree are
+ * only ever replaced (written elsewhere and moved into place) or deleted,
+ * {@link #trustDirectoryTimes(boolean)} skips checking the files too.<p>
+ *
+ * A modified file is one whose size or modification time has changed. When
+ * hashing is enabled, a file whose size is unchanged is only reported as
+ * modified if its hash has changed too.<p>
+ *
+ * Symbolic links are followed, but as in {@link FileTreeWalker}, a directory
+ * already on the path to it is not entered again.
+ *
+ * @author torkjelh
+ */
+public class IncrementalScanner {
+
+    /**
+     * Receives the changes found by a scan.
+     */
+    public interface Listener {
+        void changed(FileChange change);
+    }
+
+    private static final int MAGIC = 0x74756373;
+    private static final int VERSION = 1;
+
+    /**
+     * Directories modified this close to the start of a scan may be modified
+     * again without their modification time changing, so their time is not
+     * recorded.
+     */
+    private static final long RACY_MILLIS = 2000;
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    private final Path root;
+    private final File snapshot;
+    private String hashAlgorithm;
+    private boolean trustDirectoryTimes;
+
+    public IncrementalScanner(String root, File snapshot) {
+        this(Paths.get(root), snapshot);
+    }
+
+    public IncrementalScanner(Path root, File snapshot) {
+        this.root = root;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Hash the contents of new and modified files, using the given algorithm.
+     *
+     * @param algorithm an algorithm supported by {@link java.security.MessageDigest}, or
+     *  <code>null</code> to disable hashing.
+     * @return this scanner.
+     * @see StringUtils#hash(byte[], String)
+     */
+    public IncrementalScanner hash(String algorithm) {
+        hashAlgorithm = algorithm;
+        return this;
+    }
+
+    /**
+     * Whether to assume that the files in a directory are unchanged if the
+     * modification time of the directory is unchanged.
+     *
+     * @param trust
+     * @return this scanner.
+     */
+    public IncrementalScanner trustDirectoryTimes(boolean trust) {
+        trustDirectoryTimes = trust;
+        return this;
+    }
+
+    /**
+     * Scan the tree and collect the changes.
+     *
+     * @return
+     * @see #scan(Listener)
+     */
+    public List<FileChange> scan() {
+        final List<FileChange> changes = new ArrayList<FileChange>();
+        scan(new Listener() {
+            @Override
+            public void changed(FileChange change) {
+                changes.add(change);
+            }
+        });
+        return changes;
+    }
+
+    /**
+     * Scan the tree, passing each change to the listener as it is found. The
+     * snapshot is replaced when the scan completes. If the scan fails, or the
+     * listener throws an exception, the old snapshot is kept.
+     *
+     * @param listener
+     * @throws RuntimeException if an IO-error occurs reading or writing the
+     *  snapshot.
+     */
+    public void scan(Listener listener) {
+        Snapshot old = snapshot.exists() ? load() : new Snapshot(hashAlgorithm);
+        Scan scan = new Scan(old, listener);
+        FileEntry rootEntry = FileTreeWalker.entry(root);
+        if (rootEntry != null && rootEntry.isDirectory())
+            scan.tree(rootEntry);
+        else if (old.dirs.containsKey(""))
+            scan.deleted("", root);
+        save(scan.current);
+    }
+
+    private final class Scan {
+
+        private final Snapshot previous;
+        private final Snapshot current = new Snapshot(hashAlgorithm);
+        private final Listener listener;
+        private final long racyTime = System.currentTimeMillis() - RACY_MILLIS;
+        private final boolean oldHashes;
+
+        Scan(Snapshot previous, Listener listener) {
+            this.previous = previous;
+            this.listener = listener;
+            this.oldHashes = LangUtils.eq(previous.hashAlgorithm, hashAlgorithm);
+        }
+
+        /**
+         * Scan the tree depth-first, with an explicit stack so deep trees
+         * can not overflow the call stack. Directories already on the path
+         * to a directory are not entered again.
+         */
+        void tree(FileEntry root) {
+            Deque<Pending> pending = new ArrayDeque<Pending>();
+            pending.push(new Pending("", root.toPath(), root.lastModified(), new Ancestors(root, null)));
+            List<Pending> subdirs = new ArrayList<Pending>();
+            while (!pending.isEmpty()) {
+                Pending p = pending.pop();
+                directory(p, subdirs);
+                for (int n = subdirs.size() - 1; n >= 0; n--)
+                    pending.push(subdirs.get(n));
+                subdirs.clear();
+            }
+        }
+
+        /**
+         * Scan the files of one directory, adding its subdirectories to
+         * <code>subdirs</code>.
+         */
+        void directory(Pending p, List<Pending> subdirs) {
+            String rel = p.rel;
+            Path dir = p.dir;
+            long mtime = p.mtime;
+            Dir prev = previous.dirs.get(rel);
+            Dir cur = new Dir(mtime < racyTime ? mtime : UNKNOWN);
+            current.dirs.put(rel, cur);
+
+            if (prev != null && prev.mtime == mtime) {
+                // same entries as last time; check the files and descend.
+                for (Map.Entry<String, FileState> e : prev.files.entrySet()) {
+                    String name = e.getKey();
+                    if (trustDirectoryTimes) {
+                        FileState state = e.getValue();
+                        cur.files.put(name, oldHashes ? state : new FileState(state.size, state.mtime, null));
+                        continue;
+                    }
+                    FileEntry f = FileTreeWalker.entry(dir.resolve(name));
+                    if (f != null && f.isFile())
+                        file(cur, f, e.getValue());
+                    else
+                        report(Type.DELETED, dir.resolve(name), e.getValue());
+                }
+                for (String name : prev.subdirs) {
+                    FileEntry d = FileTreeWalker.entry(dir.resolve(name));
+                    if (d != null && d.isDirectory() && !p.ancestors.contains(d)) {
+                        cur.subdirs.add(name);
+                        subdirs.add(new Pending(child(rel, name), d.toPath(), d.lastModified(),
+                            new Ancestors(d, p.ancestors)));
+                    } else
+                        deleted(child(rel, name), dir.resolve(name));
+                }
+                return;
+            }
+
+            FileEntry[] entries = FileTreeWalker.list(dir);
+            if (entries == null)
+                entries = new FileEntry[0];
+            for (FileEntry e : entries) {
+                String name = e.toPath().getFileName().toString();
+                if (e.isDirectory()) {
+                    if (p.ancestors.contains(e))
+                        continue;
+                    cur.subdirs.add(name);
+                    subdirs.add(new Pending(child(rel, name), e.toPath(), e.lastModified(),
+                        new Ancestors(e, p.ancestors)));
+                } else if (e.isFile())
+                    file(cur, e, prev != null ? prev.files.get(name) : null);
+            }
+            if (prev != null) {
+                for (Map.Entry<String, FileState> e : prev.files.entrySet())
+                    if (!cur.files.containsKey(e.getKey()))
+                        report(Type.DELETED, dir.resolve(e.getKey()), e.getValue());
+                for (String name : prev.subdirs)
+                    if (!cur.subdirs.contains(name))
+                        deleted(child(rel, name), dir.resolve(name));
+            }
+        }
+
+        void file(Dir cur, FileEntry f, FileState prev) {
+            String name = f.toPath().getFileName().toString();
+            String prevHash = prev != null && oldHashes ? prev.hash : null;
+            FileState state;
+            if (prev == null) {
+                state = new FileState(f.size(), f.lastModified(), hash(f));
+                report(Type.ADDED, f.toPath(), state);
+            } else if (prev.size != f.size() || prev.mtime != f.lastModified()) {
+                state = new FileState(f.size(), f.lastModified(), hash(f));
+                if (prev.size != state.size || prevHash == null || !prevHash.equals(state.hash))
+                    report(Type.MODIFIED, f.toPath(), state);
+            } else
+                state = new FileState(prev.size, prev.mtime, prevHash != null ? prevHash : hash(f));
+            cur.files.put(name, state);
+        }
+
+        /**
+         * Report all files in a directory of the previous snapshot as deleted.
+         */
+        void deleted(String rel, Path dir) {
+            Deque<Pending> pending = new ArrayDeque<Pending>();
+            pending.push(new Pending(rel, dir, 0, null));
+            while (!pending.isEmpty()) {
+                Pending p = pending.pop();
+                Dir prev = previous.dirs.get(p.rel);
+                if (prev == null)
+                    continue;
+                for (Map.Entry<String, FileState> e : prev.files.entrySet())
+                    report(Type.DELETED, p.dir.resolve(e.getKey()), e.getValue());
+                for (String name : prev.subdirs)
+                    pending.push(new Pending(child(p.rel, name), p.dir.resolve(name), 0, null));
+            }
+        }
+
+        private void report(Type type, Path path, FileState state) {
+            listener.changed(new FileChange(
+                type, path.toString(), state.size, state.mtime, state.hash));
+        }
+
+        private String child(String rel, String name) {
+            return rel.length() == 0 ? name : rel + "/" + name;
+        }
+    }
+
+    private String hash(FileEntry f) {
+        if (hashAlgorithm == null)
+            return null;
+        try {
+            return StringUtils.hash(f.toFile(), hashAlgorithm);
+        } catch (RuntimeException e) {
+            // the file is gone or unreadable; it will be seen again next scan.
+            if (e.getCause() instanceof IOException)
+                return null;
+            throw e;
+        }
+    }
+
+    private Snapshot load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(snapshot), 65536)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a snapshot file: " + snapshot);
+            String algorithm = in.readUTF();
+            Snapshot s = new Snapshot(algorithm.length() == 0 ? null : algorithm);
+            int dirCount = in.readInt();
+            for (int n = 0; n < dirCount; n++) {
+                String rel = in.readUTF();
+                Dir dir = new Dir(in.readLong());
+                int fileCount = in.readInt();
+                for (int m = 0; m < fileCount; m++) {
+                    String name = in.readUTF();
+                    long size = in.readLong();
+                    long mtime = in.readLong();
+                    String hash = in.readUTF();
+                    dir.files.put(name, new FileState(size, mtime, hash.length() == 0 ? null : hash));
+                }
+                int subdirCount = in.readInt();
+                for (int m = 0; m < subdirCount; m++)
+                    dir.subdirs.add(in.readUTF());
+                s.dirs.put(rel, dir);
+            }
+            return s;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (in != null)
+                try { in.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    /**
+     * Write the snapshot to a temporary file, and move it into place, so a
+     * failed or interrupted save leaves the old snapshot intact.
+     */
+    private void save(Snapshot s) {
+        DataOutputStream out = null;
+        File tmp = null;
+        boolean ok = false;
+        try {
+            tmp = File.createTempFile("." + snapshot.getName() + ".", ".tmp", FileUtils.parent(snapshot));
+            out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tmp), 65536)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(s.hashAlgorithm != null ? s.hashAlgorithm : "");
+            out.writeInt(s.dirs.size());
+            for (Map.Entry<String, Dir> e : s.dirs.entrySet()) {
+                Dir dir = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(dir.mtime);
+                out.writeInt(dir.files.size());
+                for (Map.Entry<String, FileState> f : dir.files.entrySet()) {
+                    out.writeUTF(f.getKey());
+                    out.writeLong(f.getValue().size);
+                    out.writeLong(f.getValue().mtime);
+                    out.writeUTF(f.getValue().hash != null ? f.getValue().hash : "");
+                }
+                out.writeInt(dir.subdirs.size());
+                for (String name : dir.subdirs)
+                    out.writeUTF(name);
+            }
+            out.close();
+            out = null;
+            FileUtils.publish(tmp, snapshot);
+            ok = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (out != null)
+                try { out.close(); } catch (IOException e) { e.printStackTrace(); }
+            if (!ok && tmp != null)
+                tmp.delete();
+        }
+    }
+
+    /**
+     * A directory waiting to be scanned, or to be reported as deleted.
+     */
+    private static final class Pending {
+        final String rel;
+        final Path dir;
+        final long mtime;
+        final Ancestors ancestors;
+
+        Pending(String rel, Path dir, long mtime, Ancestors ancestors) {
+            this.rel = rel;
+            this.dir = dir;
+            this.mtime = mtime;
+            this.ancestors = ancestors;
+        }
+    }
+
+    private static final class Snapshot {
+        final String hashAlgorithm;
+        final Map<String, Dir> dirs = new HashMap<String, Dir>();
+
+        Snapshot(String hashAlgorithm) {
+            this.hashAlgorithm = hashAlgorithm;
+        }
+    }
+
+    private static final class Dir {
+        final long mtime;
+        final Map<String, FileState> files = new LinkedHashMap<String, FileState>();
+        final Set<String> subdirs = new LinkedHashSet<String>();
+
+        Dir(long mtime) {
+            this.mtime = mtime;
+        }
+    }
+
+    private static final class FileState {
+        final long size;
+        final long mtime;
+        final String hash;
+
+        FileState(long size, long mtime, String hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.hash = hash;
+        }
+    }
+}
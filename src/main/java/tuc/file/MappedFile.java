@@ -0,0 +1,402 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import tuc.StringUtils;
+import tuc.collections.ItemProducer;
+import tuc.collections.ItemProducerIterator;
+
+/**
+ * A read-only, memory-mapped view of a file. A {@link ByteBuffer} can only
+ * address 2 GB, so larger files are mapped as a sequence of segments.<p>
+ *
+ * Files of records separated by a delimiter, such as lines of text, can be
+ * iterated over without copying the data onto the heap:
+ * <pre>
+ * MappedFile f = new MappedFile(new File("access.log"));
+ * try {
+ *   for (MappedFile.Record line : f.lines())
+ *     if (line.length() > 0 &amp;&amp; line.byteAt(0) == '#')
+ *       System.out.println(line);
+ * } finally {
+ *   f.close();
+ * }
+ * </pre>
+ *
+ * The mapping stays valid after {@link #close()} until the buffers are
+ * garbage collected; the JDK offers no way to unmap them explicitly.
+ *
+ * @author torkjelh
+ */
+public class MappedFile implements Closeable {
+
+    /**
+     * The default segment size, 1 GB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final long size;
+    private final int segmentSize;
+    private MappedByteBuffer[] segments;
+
+    public MappedFile(File file) {
+        this(file.toPath(), DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedFile(Path path) {
+        this(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Map a file.
+     *
+     * @param path
+     * @param segmentSize the size of each mapped segment, except the last.
+     * @throws RuntimeException if the file can not be mapped.
+     */
+    public MappedFile(Path path, int segmentSize) {
+        if (segmentSize < 1)
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        this.segmentSize = segmentSize;
+        FileChannel ch = null;
+        try {
+            ch = FileChannel.open(path, StandardOpenOption.READ);
+            size = ch.size();
+            int count = (int)((size + segmentSize - 1) / segmentSize);
+            segments = new MappedByteBuffer[count];
+            for (int n = 0; n < count; n++) {
+                long offset = (long)n * segmentSize;
+                segments[n] = ch.map(MapMode.READ_ONLY, offset, Math.min(segmentSize, size - offset));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // the mapping outlives the channel.
+            if (ch != null)
+                try { ch.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    /**
+     * Get the size of the file, as it was when it was mapped.
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Get the file offset of the start of a segment.
+     *
+     * @param n
+     * @return
+     */
+    public long segmentOffset(int n) {
+        return (long)n * segmentSize;
+    }
+
+    /**
+     * Get a segment of the file.
+     *
+     * @param n
+     * @return a new read-only buffer, positioned at the start of the segment.
+     */
+    public ByteBuffer segment(int n) {
+        return segments[n].asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the byte at the given position in the file.
+     *
+     * @param pos
+     * @return
+     */
+    public byte get(long pos) {
+        if (pos < 0 || pos >= size)
+            throw new IndexOutOfBoundsException("pos: " + pos);
+        return segments[(int)(pos / segmentSize)].get((int)(pos % segmentSize));
+    }
+
+    /**
+     * Copy a region of the file to an array.
+     *
+     * @param pos
+     * @param dst
+     * @param off
+     * @param len
+     */
+    public void get(long pos, byte[] dst, int off, int len) {
+        if (pos < 0 || len < 0 || pos + len > size)
+            throw new IndexOutOfBoundsException("pos: " + pos + ", len: " + len);
+        while (len > 0) {
+            ByteBuffer seg = segment((int)(pos / segmentSize));
+            seg.position((int)(pos % segmentSize));
+            int n = Math.min(len, seg.remaining());
+            seg.get(dst, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Get a region of the file as a buffer. If the region lies within one
+     * segment, the buffer is a view of the mapping; otherwise the region is
+     * copied to a heap buffer.
+     *
+     * @param pos
+     * @param len
+     * @return a read-only buffer.
+     */
+    public ByteBuffer slice(long pos, int len) {
+        if (pos < 0 || len < 0 || pos + len > size)
+            throw new IndexOutOfBoundsException("pos: " + pos + ", len: " + len);
+        int n = (int)(pos / segmentSize);
+        int start = (int)(pos % segmentSize);
+        if (start + len <= segments[n].capacity()) {
+            ByteBuffer seg = segment(n);
+            seg.position(start).limit(start + len);
+            return seg.slice();
+        }
+        byte[] data = new byte[len];
+        get(pos, data, 0, len);
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * Hash the contents of the mapped file.
+     *
+     * @param algorithm
+     * @return
+     * @see StringUtils#hash(ByteBuffer[], String)
+     */
+    public String hash(String algorithm) {
+        return StringUtils.hash(segments, algorithm);
+    }
+
+    /**
+     * Iterate over the lines of the file. Lines end with "\n"; a trailing
+     * "\r" is not part of the line.
+     *
+     * @return
+     * @see #records(byte)
+     */
+    public Iterable<Record> lines() {
+        return new RecordIterable((byte)'\n', true);
+    }
+
+    /**
+     * Iterate over the records of the file, separated by the given delimiter.
+     * The delimiter is not part of the record. A delimiter at the very end of
+     * the file does not start a new, empty record.<p>
+     *
+     * The iterator returns the same {@link Record} object for every record,
+     * so a record is only valid until the next one is requested.
+     *
+     * @param delimiter
+     * @return
+     */
+    public Iterable<Record> records(byte delimiter) {
+        return new RecordIterable(delimiter, false);
+    }
+
+    /**
+     * Release the mapping. The buffers obtained from this file remain valid
+     * until they are garbage collected.
+     */
+    @Override
+    public void close() {
+        segments = new MappedByteBuffer[0];
+    }
+
+    private final class RecordIterable implements Iterable<Record> {
+
+        private final byte delimiter;
+        private final boolean stripCr;
+
+        RecordIterable(byte delimiter, boolean stripCr) {
+            this.delimiter = delimiter;
+            this.stripCr = stripCr;
+        }
+
+        @Override
+        public Iterator<Record> iterator() {
+            return new ItemProducerIterator<Record>(new RecordProducer(delimiter, stripCr));
+        }
+    }
+
+    private final class RecordProducer implements ItemProducer<Record> {
+
+        private final byte delimiter;
+        private final boolean stripCr;
+        private final Record record = new Record();
+        private long pos;
+
+        RecordProducer(byte delimiter, boolean stripCr) {
+            this.delimiter = delimiter;
+            this.stripCr = stripCr;
+        }
+
+        @Override
+        public Record produce() {
+            if (pos >= size)
+                return null;
+
+            int n = (int)(pos / segmentSize);
+            int start = (int)(pos % segmentSize);
+            ByteBuffer seg = segments[n];
+            int limit = seg.capacity();
+            int end = start;
+            while (end < limit && seg.get(end) != delimiter)
+                end++;
+
+            if (end < limit || n == segments.length - 1) {
+                // the record is within one segment.
+                long offset = pos;
+                int len = end - start;
+                pos += len + 1;
+                if (stripCr && len > 0 && seg.get(end - 1) == '\r')
+                    len--;
+                record.set(seg, start, len, offset);
+                return record;
+            }
+
+            // the record spans segments; copy it.
+            long recordStart = pos;
+            long p = pos + (end - start);
+            while (p < size && get(p) != delimiter)
+                p++;
+            int len = (int)(p - recordStart);
+            if (p - recordStart > Integer.MAX_VALUE)
+                throw new IllegalStateException("Record at " + recordStart + " is too long");
+            pos = p + 1;
+            if (stripCr && len > 0 && get(p - 1) == '\r')
+                len--;
+            byte[] data = record.scratch(len);
+            get(recordStart, data, 0, len);
+            record.set(ByteBuffer.wrap(data), 0, len, recordStart);
+            return record;
+        }
+    }
+
+    /**
+     * A record of a mapped file. The bytes of the record are not copied
+     * unless the record spans two segments, and no string is created unless
+     * asked for.
+     */
+    public static final class Record {
+
+        private ByteBuffer buf;
+        private int start;
+        private int length;
+        private long offset;
+        private byte[] scratch;
+
+        void set(ByteBuffer buf, int start, int length, long offset) {
+            this.buf = buf;
+            this.start = start;
+            this.length = length;
+            this.offset = offset;
+        }
+
+        byte[] scratch(int len) {
+            if (scratch == null || scratch.length < len)
+                scratch = new byte[Math.max(len, 256)];
+            return scratch;
+        }
+
+        /**
+         * Get the position of the record in the file.
+         *
+         * @return
+         */
+        public long offset() {
+            return offset;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public byte byteAt(int i) {
+            if (i < 0 || i >= length)
+                throw new IndexOutOfBoundsException("i: " + i);
+            return buf.get(start + i);
+        }
+
+        /**
+         * Copy the record to an array.
+         *
+         * @param dst
+         * @param off
+         */
+        public void getBytes(byte[] dst, int off) {
+            ByteBuffer b = buffer();
+            b.get(dst, off, length);
+        }
+
+        /**
+         * Get the record as a buffer.
+         *
+         * @return a new read-only buffer, valid only until the next record is
+         *  requested if the record was copied.
+         */
+        public ByteBuffer buffer() {
+            ByteBuffer b = buf.asReadOnlyBuffer();
+            b.position(start).limit(start + length);
+            return b.slice();
+        }
+
+        public String toString(Charset charset) {
+            return charset.decode(buffer()).toString();
+        }
+
+        /**
+         * Decode the record as UTF-8.
+         */
+        public String toString() {
+            return toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tuc.Exceptions;
+import tuc.collections.ItemProducer;
+import tuc.collections.ItemProducerIterator;
+
+/**
+ * Parallel version of {@link DirectoryTreeTraverser}. Directories are listed
+ * concurrently by the tasks of a {@link ForkJoinPool}, while the paths of the
+ * files found are handed over to the consuming thread.<p>
+ *
+ * Two output modes are supported:
+ * <ul>
+ * <li><i>unordered</i>: files are produced in whatever order the workers find
+ * them. Workers hand files over through a bounded queue, and block when the
+ * consumer falls behind.
+ * <li><i>ordered</i>: files are produced in the same depth-first order as
+ * {@link DirectoryTreeTraverser} would produce them. Workers list
+ * subdirectories ahead of the consumer, but only a bounded number of listings
+ * are kept waiting for the consumer at any time.
+ * </ul>
+ *
+ * Like {@link DirectoryTreeTraverser}, symbolic links are followed, but a
+ * directory already on the path to it is not entered again, so link cycles do
+ * not lead to endless traversals.<p>
+ *
+ * Like {@link DirectoryTreeTraverser} this is a single-consumer producer. If
+ * the iteration is abandoned before all files have been produced,
+ * {@link #close()} should be called to stop the workers.
+ * <pre>
+ * ParallelDirectoryTreeTraverser t = new ParallelDirectoryTreeTraverser("/home/foo/");
+ * try {
+ *   for (String f : t)
+ *     System.out.println(f);
+ * } finally {
+ *   t.close();
+ * }
+ * </pre>
+ *
+ * @author torkjelh
+ */
+public class ParallelDirectoryTreeTraverser
+        implements Iterable<String>, ItemProducer<String>, Closeable {
+
+    /**
+     * The default capacity. In unordered mode this is the number of file
+     * paths, in ordered mode the number of directory listings, that may be
+     * buffered ahead of the consumer.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Path root;
+    private final boolean ordered;
+    private final int capacity;
+
+    private ForkJoinPool pool;
+    private final boolean ownPool;
+
+    private Traversal traversal;
+
+    /**
+     * Set when the traversal has ended or been closed; after that nothing
+     * more is produced.
+     */
+    private boolean finished;
+
+    /**
+     * Create an unordered traverser, using a private {@link ForkJoinPool}.
+     *
+     * @param directory
+     */
+    public ParallelDirectoryTreeTraverser(String directory) {
+        this(directory, false);
+    }
+
+    /**
+     * Create a traverser using a private {@link ForkJoinPool}.
+     *
+     * @param directory
+     * @param ordered whether files should be produced in depth-first order.
+     */
+    public ParallelDirectoryTreeTraverser(String directory, boolean ordered) {
+        this(directory, ordered, DEFAULT_CAPACITY, null);
+    }
+
+    /**
+     * Create a traverser.
+     *
+     * @param directory
+     * @param ordered whether files should be produced in depth-first order.
+     * @param capacity see {@link #DEFAULT_CAPACITY}.
+     * @param pool the pool to list directories in, or <code>null</code> to
+     *  use a private pool which is shut down when the traversal ends.
+     */
+    public ParallelDirectoryTreeTraverser(
+            String directory, boolean ordered, int capacity, ForkJoinPool pool) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity: " + capacity);
+        this.root = Paths.get(directory);
+        this.ordered = ordered;
+        this.capacity = capacity;
+        this.pool = pool;
+        this.ownPool = pool == null;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new ItemProducerIterator<String>(this);
+    }
+
+    @Override
+    public String produce() {
+        if (finished)
+            return null;
+        if (traversal == null) {
+            if (ownPool)
+                pool = new ForkJoinPool();
+            traversal = ordered ? new OrderedTraversal() : new UnorderedTraversal();
+        }
+        String next = traversal.next();
+        if (next == null)
+            close();
+        return next;
+    }
+
+    /**
+     * Stop the traversal. Workers still listing directories will stop as soon
+     * as possible, and the private pool, if any, is shut down. Nothing more
+     * is produced after this.
+     */
+    @Override
+    public void close() {
+        finished = true;
+        if (traversal != null)
+            traversal.cancel();
+        if (ownPool && pool != null)
+            pool.shutdownNow();
+    }
+
+    private abstract class Traversal {
+
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        abstract String next();
+
+        /**
+         * Fork the task if called from a worker of our pool, or submit it to
+         * the pool otherwise.
+         */
+        void execute(RecursiveAction task) {
+            if (ForkJoinTask.getPool() == pool)
+                task.fork();
+            else
+                pool.execute(task);
+        }
+
+        void cancel() {
+            cancelled.set(true);
+        }
+
+        void fail(Throwable t) {
+            failure.compareAndSet(null, t);
+            cancel();
+        }
+
+        void checkFailure() {
+            Throwable t = failure.get();
+            if (t instanceof Error)
+                throw (Error)t;
+            if (t != null)
+                throw Exceptions.toRuntimeEx((Exception)t);
+        }
+    }
+
+    /**
+     * Every directory is listed by its own task, which forks a new task for
+     * each subdirectory and puts the files on the hand-off queue. Tasks never
+     * join their subtasks; instead the number of pending tasks is counted, and
+     * the last task to finish marks the end of the traversal.
+     */
+    private final class UnorderedTraversal extends Traversal {
+
+        private final Object end = new Object();
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(capacity);
+        private final AtomicInteger pending = new AtomicInteger();
+
+        UnorderedTraversal() {
+            submit(new ListTask(Ancestors.root(root)));
+        }
+
+        private void submit(ListTask task) {
+            pending.incrementAndGet();
+            execute(task);
+        }
+
+        @Override
+        String next() {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            if (item == end) {
+                checkFailure();
+                return null;
+            }
+            return (String)item;
+        }
+
+        @Override
+        void cancel() {
+            super.cancel();
+            queue.clear();
+        }
+
+        private void put(Object item) throws InterruptedException {
+            while (!cancelled.get())
+                if (queue.offer(item, 100, TimeUnit.MILLISECONDS))
+                    return;
+        }
+
+        private void done() {
+            if (pending.decrementAndGet() > 0)
+                return;
+            try {
+                put(end);
+            } catch (InterruptedException e) {
+                cancel();
+            }
+            // make room for the end marker if the traversal was cancelled.
+            if (cancelled.get()) {
+                queue.clear();
+                queue.offer(end);
+            }
+        }
+
+        private final class ListTask extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final Ancestors dir;
+
+            ListTask(Ancestors dir) {
+                this.dir = dir;
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    FileEntry[] entries = cancelled.get() ? null : FileTreeWalker.list(dir.path);
+                    if (entries == null)
+                        return;
+                    for (FileEntry e : entries) {
+                        if (cancelled.get())
+                            return;
+                        if (e.isDirectory()) {
+                            if (!dir.contains(e))
+                                submit(new ListTask(new Ancestors(e, dir)));
+                        }
+                        else if (e.isFile())
+                            put(e.getPath());
+                    }
+                } catch (InterruptedException e) {
+                    UnorderedTraversal.this.cancel();
+                } catch (Throwable t) {
+                    fail(t);
+                } finally {
+                    done();
+                }
+            }
+        }
+    }
+
+    /**
+     * The consumer walks a tree of {@link Listing}s depth-first. When a
+     * listing completes, listings of its subdirectories are forked for as long
+     * as there are free slots in the read-ahead window. Subdirectories which
+     * do not get a slot are listed by the consumer when it reaches them.
+     */
+    private final class OrderedTraversal extends Traversal {
+
+        private final Semaphore window = new Semaphore(capacity);
+        private final Deque<Cursor> stack = new ArrayDeque<Cursor>();
+
+        OrderedTraversal() {
+            Listing rootListing = new Listing(Ancestors.root(root));
+            rootListing.list();
+            stack.push(new Cursor(rootListing));
+        }
+
+        @Override
+        String next() {
+            while (!stack.isEmpty()) {
+                checkFailure();
+                Cursor cursor = stack.peek();
+                if (cursor.index == cursor.entries.length) {
+                    stack.pop();
+                    if (cursor.listing.prefetched)
+                        window.release();
+                    continue;
+                }
+                Object entry = cursor.entries[cursor.index];
+                cursor.entries[cursor.index++] = null;
+                if (entry instanceof String)
+                    return (String)entry;
+                Listing child = (Listing)entry;
+                child.await();
+                stack.push(new Cursor(child));
+            }
+            checkFailure();
+            return null;
+        }
+
+        private final class Cursor {
+            final Listing listing;
+            final Object[] entries;
+            int index;
+
+            Cursor(Listing listing) {
+                this.listing = listing;
+                this.entries = listing.entries;
+            }
+        }
+
+        /**
+         * The listing of a directory. Each entry is either the path of a file
+         * or the listing of a subdirectory.
+         */
+        private final class Listing extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final Ancestors dir;
+            private final AtomicBoolean started = new AtomicBoolean();
+            boolean prefetched;
+            Object[] entries;
+
+            Listing(Ancestors dir) {
+                this.dir = dir;
+            }
+
+            /**
+             * Wait for this listing to complete, or list the directory in the
+             * calling thread if no worker has started on it.
+             */
+            void await() {
+                if (started.compareAndSet(false, true))
+                    list();
+                else
+                    join();
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    list();
+                } catch (Throwable t) {
+                    fail(t);
+                    entries = new Object[0];
+                }
+            }
+
+            void list() {
+                FileEntry[] files = cancelled.get() ? null : FileTreeWalker.list(dir.path);
+                if (files == null) {
+                    entries = new Object[0];
+                    return;
+                }
+                List<Listing> subdirs = new ArrayList<Listing>();
+                Object[] result = new Object[files.length];
+                int size = 0;
+                for (FileEntry f : files) {
+                    if (f.isDirectory()) {
+                        if (dir.contains(f))
+                            continue;
+                        Listing l = new Listing(new Ancestors(f, dir));
+                        subdirs.add(l);
+                        result[size++] = l;
+                    } else if (f.isFile())
+                        result[size++] = f.getPath();
+                }
+                if (size < result.length) {
+                    Object[] trimmed = new Object[size];
+                    System.arraycopy(result, 0, trimmed, 0, size);
+                    result = trimmed;
+                }
+                entries = result;
+
+                // claim slots for the first subdirectories, and fork them in
+                // reverse order so the local worker picks up the first one first.
+                int prefetch = 0;
+                while (prefetch < subdirs.size() && !cancelled.get() && window.tryAcquire())
+                    prefetch++;
+                for (int n = prefetch - 1; n >= 0; n--) {
+                    Listing l = subdirs.get(n);
+                    l.started.set(true);
+                    l.prefetched = true;
+                    execute(l);
+                }
+            }
+        }
+    }
+}
@@ -27,15 +27,12 @@ package tuc.xml;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.EntityResolver;
 
@@ -51,6 +48,10 @@ public abstract class AbstractParser {
 
     private Element docElem;
 
+    private ElementIndex index;
+
+    private XmlTree tree;
+
     /**
      * Create a parser using the {@link SimpleClasspathEntityResolver] entity
      * resolver.
@@ -68,13 +69,29 @@ public abstract class AbstractParser {
      * @param er
      */
     protected AbstractParser(InputStream in, EntityResolver er) {
+        this(in, er, ParserOptions.DEFAULT);
+    }
+
+    /**
+     * Create a parser using the given {@link EntityResolver} and options.
+     * The document builder is reused from earlier parses on the same thread
+     * with the same options.
+     *
+     * @param in
+     * @param er
+     * @param options
+     */
+    protected AbstractParser(InputStream in, EntityResolver er, ParserOptions options) {
+        DocumentBuilder builder = null;
         try {
-            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            builder = options.take();
             builder.setEntityResolver(er);
             this.docElem = builder.parse(in).getDocumentElement();
         } catch (Exception e) {
             throw Exceptions.toRuntimeEx(e);
         } finally {
+            if (builder != null)
+                options.release(builder);
             try {
                 in.close();
             } catch (IOException e) {
@@ -92,6 +109,17 @@ public abstract class AbstractParser {
         this.docElem = rootElem;
     }
 
+    /**
+     * Creates a parser from a compact {@link XmlTree}, instead of a DOM tree.
+     * Such a parser uses {@link #treeRoot()} and the {@link XmlElement}
+     * helpers; {@link #root()} returns <code>null</code>.
+     *
+     * @param tree
+     */
+    protected AbstractParser(XmlTree tree) {
+        this.tree = tree;
+    }
+
     /**
      * Get the root element of the document.
      *
@@ -101,6 +129,41 @@ public abstract class AbstractParser {
         return docElem;
     }
 
+    /**
+     * Get the root element of a parser created from an {@link XmlTree}.
+     *
+     * @return the root, or <code>null</code> if the parser uses a DOM tree.
+     */
+    protected XmlElement treeRoot() {
+        return tree != null ? tree.getRoot() : null;
+    }
+
+    /**
+     * @see #getChildElement(Element, String)
+     */
+    protected XmlElement getChildElement(XmlElement elem, String name) {
+        return elem.getChildElement(name);
+    }
+
+    /**
+     * @see #getChildElements(Element, String)
+     */
+    protected List<XmlElement> getChildElements(XmlElement elem, String name) {
+        return elem.getChildElements(name);
+    }
+
+    /**
+     * Get the first element below the root of an {@link XmlTree} document
+     * with the given name, like {@link #getElement(String)}.
+     *
+     * @param name
+     * @return an element, or <code>null</code> if no such element exists.
+     */
+    protected XmlElement getTreeElement(String name) {
+        XmlElement root = treeRoot();
+        return root == null ? null : root.getElement(name);
+    }
+
     /**
      * Get the first child element of the given element with the given name.
      *
@@ -109,8 +172,7 @@ public abstract class AbstractParser {
      * @return an element, or <code>null</code> if no such element exists.
      */
     protected Element getChildElement(Element elem, String name) {
-        List<Element> children = getChildElements(elem, name);
-        return children.size() > 0 ? children.get(0) : null;
+        return Elements.getChildElement(elem, name);
     }
 
     /**
@@ -121,21 +183,53 @@ public abstract class AbstractParser {
      * @return
      */
     protected List<Element> getChildElements(Element elem, String name) {
-        List<Element> children = new ArrayList<Element>();
-        NodeList nl = elem.getChildNodes();
-        for (int n = 0; n < nl.getLength(); n++) {
-            Node node = nl.item(n);
-            if (node instanceof Element) {
-                Element e = (Element)node;
-                if (e.getTagName().equals(name))
-                    children.add(e);
-            }
-        }
-        return children;
+        return Elements.getChildElements(elem, name);
     }
 
+    /**
+     * Get the first element in the document with the given name. Once
+     * {@link #index()} has been used, this is a lookup in the index.
+     *
+     * @param name
+     * @return an element, or <code>null</code> if no such element exists.
+     */
     protected Element getElement(String name) {
+        if (index != null)
+            return index.getFirst(name);
         NodeList nl = root().getElementsByTagName(name);
         return nl.getLength() == 0 ? null : (Element)nl.item(0);
     }
+
+    /**
+     * Get an index of the elements of the document by name, building it on
+     * first use.
+     *
+     * @return
+     */
+    protected ElementIndex index() {
+        if (index == null)
+            index = new ElementIndex(root());
+        return index;
+    }
+
+    /**
+     * Select all elements matching a query, starting from the root element.
+     *
+     * @param query
+     * @return
+     */
+    protected List<Element> select(PathQuery query) {
+        return query.select(root());
+    }
+
+    /**
+     * Select the first element matching a query, starting from the root
+     * element.
+     *
+     * @param query
+     * @return an element, or <code>null</code> if none matches.
+     */
+    protected Element selectFirst(PathQuery query) {
+        return query.selectFirst(root());
+    }
 }
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.EntityResolver;
+
+import tuc.Exceptions;
+
+/**
+ * Abstract base class for streaming XML document parsers. Where
+ * {@link AbstractParser} builds the whole document in memory first, this
+ * reads the document as the subclass asks for it, so memory use does not
+ * depend on the document size. DOM fragments are built only for the
+ * subtrees the subclass reads with {@link #readElement()}.<p>
+ *
+ * The parser is a cursor over the document. The root element starts out
+ * <i>entered</i>. {@link #nextChild(String)} moves to the next child of the
+ * innermost entered element; the child may then be entered with
+ * {@link #enter()}, read with {@link #readText()} or {@link #readElement()},
+ * or just left alone to be skipped:
+ * <pre>
+ * while (nextChild("item")) {
+ *     String id = attr("id");
+ *     enter();
+ *     while (nextChild("price"))
+ *         total += Double.parseDouble(readText());
+ * }
+ * </pre>
+ *
+ * When <code>nextChild</code> returns <code>false</code> the entered
+ * element has ended, and the cursor is back in its parent. The stream is
+ * closed when the root element ends, or by {@link #close()}.
+ *
+ * @author torkjelh
+ */
+public abstract class AbstractStreamParser implements Closeable {
+
+    private final InputStream in;
+    private final XMLStreamReader reader;
+
+    /**
+     * The depth of the element at the cursor: 1 on the root start tag, and
+     * 0 after the root end tag.
+     */
+    private int depth;
+
+    /**
+     * The depths of the entered elements, innermost at
+     * <code>entered - 1</code>.
+     */
+    private int[] levels = new int[16];
+    private int entered;
+
+    /**
+     * Whether the cursor is on the start tag of a child found by
+     * {@link #nextChild(String)}, which has not been entered or read.
+     */
+    private boolean atChild;
+
+    private Document fragments;
+
+    /**
+     * Create a parser using the {@link SimpleClasspathEntityResolver}
+     * entity resolver.
+     *
+     * @param in
+     */
+    protected AbstractStreamParser(InputStream in) {
+        this(in, new SimpleClasspathEntityResolver());
+    }
+
+    /**
+     * Create a parser using the given {@link EntityResolver}, positioned on
+     * the root element.
+     *
+     * @param in
+     * @param er
+     */
+    protected AbstractStreamParser(InputStream in, EntityResolver er) {
+        this.in = in;
+        try {
+            reader = StreamReaders.create(in, er);
+            while (reader.next() != XMLStreamConstants.START_ELEMENT)
+                ;
+        } catch (Exception e) {
+            close();
+            throw Exceptions.toRuntimeEx(e);
+        }
+        depth = 1;
+        levels[entered++] = 1;
+    }
+
+    /**
+     * @return the local name of the element at the cursor.
+     */
+    protected String name() {
+        return reader.getLocalName();
+    }
+
+    /**
+     * Get an attribute of the element at the cursor.
+     *
+     * @param name
+     * @return the value, or <code>null</code> if the attribute is not set.
+     */
+    protected String attr(String name) {
+        return reader.getAttributeValue(null, name);
+    }
+
+    /**
+     * Move to the next child element of the innermost entered element. A
+     * previous child that was not entered or read is skipped.
+     *
+     * @return <code>true</code> if there is a child, or <code>false</code> if
+     *  the entered element ended, and is no longer entered.
+     */
+    protected boolean nextChild() {
+        return nextChild(null);
+    }
+
+    /**
+     * Move to the next child element with the given name of the innermost
+     * entered element, skipping others.
+     *
+     * @param name
+     * @return <code>true</code> if there is such a child, or
+     *  <code>false</code> if the entered element ended, and is no longer
+     *  entered.
+     * @see #nextChild()
+     */
+    protected boolean nextChild(String name) {
+        if (entered == 0)
+            return false;
+        int level = levels[entered - 1];
+        try {
+            if (atChild)
+                skipElement();
+            for (;;) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (++depth == level + 1 && (name == null || name.equals(reader.getLocalName()))) {
+                        atChild = true;
+                        return true;
+                    }
+                    skipElement();
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (--depth < level) {
+                        ended();
+                        return false;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw Exceptions.toRuntimeEx(e);
+        }
+    }
+
+    /**
+     * Enter the child at the cursor, so {@link #nextChild(String)} moves
+     * among its children.
+     *
+     * @throws IllegalStateException if the cursor is not on a child.
+     */
+    protected void enter() {
+        checkAtChild();
+        if (entered == levels.length)
+            levels = Arrays.copyOf(levels, entered * 2);
+        levels[entered++] = depth;
+        atChild = false;
+    }
+
+    /**
+     * Skip the rest of the innermost entered element, so the cursor is back
+     * in its parent.
+     */
+    protected void leave() {
+        while (nextChild(null))
+            ;
+    }
+
+    /**
+     * Read the text of the child at the cursor, including the text of its
+     * descendants, like {@link Node#getTextContent()}.
+     *
+     * @return
+     * @throws IllegalStateException if the cursor is not on a child.
+     */
+    protected String readText() {
+        checkAtChild();
+        atChild = false;
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (int d = 1; d > 0; ) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT: d++; break;
+                case XMLStreamConstants.END_ELEMENT: d--; break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw Exceptions.toRuntimeEx(e);
+        }
+        depth--;
+        return sb.toString();
+    }
+
+    /**
+     * Read the subtree of the child at the cursor into a DOM fragment. The
+     * fragment is not part of any document tree, and holds elements, their
+     * attributes, and text.
+     *
+     * @return
+     * @throws IllegalStateException if the cursor is not on a child.
+     */
+    protected Element readElement() {
+        checkAtChild();
+        atChild = false;
+        try {
+            if (fragments == null) {
+                DocumentBuilder builder = ParserOptions.DEFAULT.take();
+                fragments = builder.newDocument();
+                ParserOptions.DEFAULT.release(builder);
+            }
+            Element root = createElement();
+            Node node = root;
+            while (node != null) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    node = node.appendChild(createElement());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    node = node == root ? null : node.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    node.appendChild(fragments.createTextNode(reader.getText()));
+                    break;
+                case XMLStreamConstants.CDATA:
+                    node.appendChild(fragments.createCDATASection(reader.getText()));
+                }
+            }
+            depth--;
+            return root;
+        } catch (Exception e) {
+            throw Exceptions.toRuntimeEx(e);
+        }
+    }
+
+    /**
+     * Find the next element with the given name anywhere inside the
+     * innermost entered element, and read its subtree.
+     *
+     * @param name
+     * @return a DOM fragment as by {@link #readElement()}, or
+     *  <code>null</code> if the entered element ended, and is no longer
+     *  entered.
+     */
+    protected Element getElement(String name) {
+        if (entered == 0)
+            return null;
+        int level = levels[entered - 1];
+        try {
+            if (atChild) {
+                if (name.equals(reader.getLocalName()))
+                    return readElement();
+                atChild = false;
+            }
+            for (;;) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (name.equals(reader.getLocalName())) {
+                        atChild = true;
+                        return readElement();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (--depth < level) {
+                        ended();
+                        return null;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw Exceptions.toRuntimeEx(e);
+        }
+    }
+
+    /**
+     * @see AbstractParser#getChildElement(Element, String)
+     */
+    protected Element getChildElement(Element elem, String name) {
+        return Elements.getChildElement(elem, name);
+    }
+
+    /**
+     * @see AbstractParser#getChildElements(Element, String)
+     */
+    protected List<Element> getChildElements(Element elem, String name) {
+        return Elements.getChildElements(elem, name);
+    }
+
+    /**
+     * Stop parsing, and close the stream.
+     */
+    @Override
+    public void close() {
+        entered = 0;
+        atChild = false;
+        try {
+            if (reader != null)
+                reader.close();
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void ended() {
+        entered--;
+        if (entered == 0)
+            close();
+    }
+
+    private void checkAtChild() {
+        if (!atChild)
+            throw new IllegalStateException("Not on a child element");
+    }
+
+    /**
+     * Skip the element whose start tag is at the cursor.
+     */
+    private void skipElement() throws XMLStreamException {
+        atChild = false;
+        for (int d = 1; d > 0; ) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                d++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                d--;
+        }
+        depth--;
+    }
+
+    private Element createElement() {
+        String ns = reader.getNamespaceURI();
+        String prefix = reader.getPrefix();
+        String qname = prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+        Element elem = ns == null || ns.isEmpty() ? fragments.createElement(qname) : fragments.createElementNS(ns, qname);
+        for (int n = 0; n < reader.getNamespaceCount(); n++) {
+            String p = reader.getNamespacePrefix(n);
+            elem.setAttributeNS("http://www.w3.org/2000/xmlns/",
+                p == null || p.isEmpty() ? "xmlns" : "xmlns:" + p, reader.getNamespaceURI(n));
+        }
+        for (int n = 0; n < reader.getAttributeCount(); n++) {
+            String ans = reader.getAttributeNamespace(n);
+            String ap = reader.getAttributePrefix(n);
+            String aname = ap == null || ap.isEmpty() ? reader.getAttributeLocalName(n) : ap + ":" + reader.getAttributeLocalName(n);
+            if (ans == null || ans.isEmpty())
+                elem.setAttribute(aname, reader.getAttributeValue(n));
+            else
+                elem.setAttributeNS(ans, aname, reader.getAttributeValue(n));
+        }
+        return elem;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tuc.Exceptions;
+import tuc.collections.ItemProducer;
+import tuc.collections.ItemProducerIterator;
+
+/**
+ * Parses batches of documents on a pool of worker threads. The documents are
+ * parsed by a {@link Handler}, typically constructing an
+ * {@link AbstractParser} subclass; since parsers reuse a document builder
+ * per thread, each worker pays the parser setup cost only once.
+ * <pre>
+ * BatchParser&lt;Config&gt; batch = new BatchParser&lt;Config&gt;(new BatchParser.Handler&lt;Config&gt;() {
+ *     public Config parse(InputStream in) {
+ *         return new ConfigParser(in).getConfig();
+ *     }
+ * });
+ * try {
+ *     for (BatchParser.Result&lt;Config&gt; r : batch.parse(new DirectoryTreeTraverser(dir)))
+ *         ...
+ * } finally {
+ *     batch.close();
+ * }
+ * </pre>
+ *
+ * An input may be a {@link File}, a {@link Path}, a file name, a
+ * {@link URL} or an {@link InputStream}. Inputs are taken from the batch
+ * only as workers become free, and only a few results are held waiting for
+ * the caller, so a batch of any size is parsed in bounded memory. A document
+ * that fails to parse gives a failed result; the rest of the batch goes on.
+ *
+ * @author torkjelh
+ * @param <T> the type of the value parsed from each document.
+ */
+public class BatchParser<T> implements Closeable {
+
+    /**
+     * Parses one document.
+     *
+     * @param <T>
+     */
+    public interface Handler<T> {
+        /**
+         * @param in the document. It is closed by the batch parser when this
+         *  returns.
+         * @return the value parsed from the document.
+         */
+        T parse(InputStream in) throws Exception;
+    }
+
+    /**
+     * Receives the results of a batch. The listener is called on the thread
+     * that runs the batch, one result at a time.
+     *
+     * @param <T>
+     */
+    public interface Listener<T> {
+        void parsed(Object input, T value);
+
+        void failed(Object input, Exception error);
+    }
+
+    /**
+     * The result of parsing one document.
+     *
+     * @param <T>
+     */
+    public static final class Result<T> {
+        private final Object input;
+        private final T value;
+        private final Exception error;
+
+        Result(Object input, T value, Exception error) {
+            this.input = input;
+            this.value = value;
+            this.error = error;
+        }
+
+        public Object getInput() {
+            return input;
+        }
+
+        /**
+         * @return the parsed value, or <code>null</code> if parsing failed.
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return the error, or <code>null</code> if parsing succeeded.
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        @Override
+        public String toString() {
+            return input + (error != null ? " failed: " + error : ": " + value);
+        }
+    }
+
+    private final Handler<T> handler;
+    private final int threads;
+    private final ExecutorService executor;
+
+    /**
+     * Create a batch parser with a worker per processor.
+     *
+     * @param handler
+     */
+    public BatchParser(Handler<T> handler) {
+        this(handler, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a batch parser.
+     *
+     * @param handler
+     * @param threads the number of worker threads.
+     */
+    public BatchParser(Handler<T> handler, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads: " + threads);
+        this.handler = handler;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BatchParser-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Parse a batch of documents. The results are produced in the order the
+     * documents finish parsing, as the returned iterable is iterated; inputs
+     * are not taken from the batch faster than the results are consumed.
+     *
+     * @param inputs
+     * @return
+     */
+    public Iterable<Result<T>> parse(Iterable<?> inputs) {
+        return new ItemProducerIterator<Result<T>>(new Batch(inputs.iterator()));
+    }
+
+    /**
+     * Parse a batch of documents, passing each result to a listener, and
+     * return when all are parsed.
+     *
+     * @param inputs
+     * @param listener
+     * @return the failed results.
+     */
+    public List<Result<T>> parse(Iterable<?> inputs, Listener<T> listener) {
+        List<Result<T>> failed = new ArrayList<Result<T>>();
+        for (Result<T> result : parse(inputs)) {
+            if (result.isFailed()) {
+                failed.add(result);
+                listener.failed(result.getInput(), result.getError());
+            } else
+                listener.parsed(result.getInput(), result.getValue());
+        }
+        return failed;
+    }
+
+    /**
+     * Stop the worker threads. Documents being parsed are finished first.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private Result<T> parseOne(Object input) {
+        InputStream in = null;
+        try {
+            in = open(input);
+            return new Result<T>(input, handler.parse(in), null);
+        } catch (Exception e) {
+            return new Result<T>(input, null, e);
+        } finally {
+            if (in != null)
+                try { in.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    private static InputStream open(Object input) throws IOException {
+        if (input instanceof InputStream)
+            return (InputStream)input;
+        if (input instanceof File)
+            return new FileInputStream((File)input);
+        if (input instanceof Path)
+            return Files.newInputStream((Path)input);
+        if (input instanceof String)
+            return new FileInputStream((String)input);
+        if (input instanceof URL)
+            return ((URL)input).openStream();
+        throw new IllegalArgumentException("Unsupported input: " + input);
+    }
+
+    /**
+     * Keeps up to two documents per worker in flight, taking a new input
+     * each time a result is handed out.
+     */
+    private final class Batch implements ItemProducer<Result<T>> {
+        private final Iterator<?> inputs;
+        private final CompletionService<Result<T>> completion =
+            new ExecutorCompletionService<Result<T>>(executor);
+        private int inFlight;
+
+        Batch(Iterator<?> inputs) {
+            this.inputs = inputs;
+        }
+
+        @Override
+        public Result<T> produce() {
+            while (inFlight < threads * 2 && inputs.hasNext()) {
+                final Object input = inputs.next();
+                completion.submit(new Callable<Result<T>>() {
+                    @Override
+                    public Result<T> call() {
+                        return parseOne(input);
+                    }
+                });
+                inFlight++;
+            }
+            if (inFlight == 0)
+                return null;
+            try {
+                Result<T> result = completion.take().get();
+                inFlight--;
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                inFlight--;
+                throw Exceptions.toRuntimeEx(e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+            }
+        }
+    }
+}
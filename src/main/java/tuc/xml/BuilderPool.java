@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+/**
+ * A pool of in-memory {@link XmlBuilder}s and {@link HtmlBuilder}s, for
+ * rendering many small documents without allocating a new builder, and new
+ * buffers, for each. Each thread keeps its own small cache of released
+ * builders, so no locking is involved.<p>
+ *
+ * Usage:
+ * <pre>
+ * XmlBuilder xml = BuilderPool.getXmlBuilder();
+ * try {
+ *   ...
+ *   return xml.toString();
+ * } finally {
+ *   BuilderPool.release(xml);
+ * }
+ * </pre>
+ *
+ * A builder must not be used after it has been released. Builders that have
+ * grown beyond {@link #MAX_CAPACITY}, that write to a target, or that are of
+ * other classes, are not pooled.
+ *
+ * @author torkjelh
+ */
+public final class BuilderPool {
+
+    private BuilderPool() { }
+
+    /**
+     * The largest builder capacity, in characters, kept in the pool.
+     */
+    public static final int MAX_CAPACITY = 1024 * 1024;
+
+    /**
+     * The initial capacity of new builders.
+     */
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+
+    /**
+     * The number of builders of each class cached per thread.
+     */
+    private static final int PER_CLASS = 2;
+
+    private static final ThreadLocal<Cache> CACHE = new ThreadLocal<Cache>() {
+        @Override
+        protected Cache initialValue() {
+            return new Cache();
+        }
+    };
+
+    /**
+     * @return an empty builder.
+     */
+    public static XmlBuilder getXmlBuilder() {
+        Cache cache = CACHE.get();
+        if (cache.xmlCount > 0) {
+            XmlBuilder builder = cache.xml[--cache.xmlCount];
+            cache.xml[cache.xmlCount] = null;
+            return builder;
+        }
+        return new XmlBuilder(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return an empty builder.
+     */
+    public static HtmlBuilder getHtmlBuilder() {
+        Cache cache = CACHE.get();
+        if (cache.htmlCount > 0) {
+            HtmlBuilder builder = cache.html[--cache.htmlCount];
+            cache.html[cache.htmlCount] = null;
+            return builder;
+        }
+        return new HtmlBuilder(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Reset a builder and return it to the pool.
+     *
+     * @param builder
+     */
+    public static void release(XmlBuilder builder) {
+        if (builder.isStreaming() || builder.capacity() > MAX_CAPACITY)
+            return;
+        Cache cache = CACHE.get();
+        if (builder.getClass() == XmlBuilder.class) {
+            if (cache.xmlCount < PER_CLASS)
+                cache.xml[cache.xmlCount++] = builder.reset();
+        } else if (builder.getClass() == HtmlBuilder.class) {
+            if (cache.htmlCount < PER_CLASS)
+                cache.html[cache.htmlCount++] = (HtmlBuilder)builder.reset();
+        }
+    }
+
+    private static final class Cache {
+        final XmlBuilder[] xml = new XmlBuilder[PER_CLASS];
+        int xmlCount;
+        final HtmlBuilder[] html = new HtmlBuilder[PER_CLASS];
+        int htmlCount;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import tuc.IOUtils;
+
+/**
+ * An {@link EntityResolver} which keeps resolved entities in memory, so DTDs
+ * and schemas used by many documents are read only once. Entities are
+ * resolved from explicitly mapped class path resources, or else by another
+ * resolver, and cached as byte arrays. When the cache grows beyond its size
+ * limit, the least recently used entities are evicted.
+ * <pre>
+ * EntityResolver er = new CachingEntityResolver()
+ *     .map("-//Acme//DTD Config 1.0//EN", "/com/acme/config.dtd");
+ * </pre>
+ *
+ * The resolver is safe for concurrent use, and is meant to be shared by all
+ * parsers of the same kind of documents.
+ *
+ * @author torkjelh
+ */
+public class CachingEntityResolver implements EntityResolver {
+
+    public static final long DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    private final EntityResolver delegate;
+    private final long maxSize;
+
+    private final Map<String, String> resources = new HashMap<String, String>();
+
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * Create a resolver falling back to a {@link SimpleClasspathEntityResolver}
+     * for ids that are not mapped.
+     */
+    public CachingEntityResolver() {
+        this(new SimpleClasspathEntityResolver(), DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a resolver.
+     *
+     * @param delegate the resolver for ids that are not mapped, or
+     *  <code>null</code> to resolve only mapped ids.
+     * @param maxSize the maximum total size, in bytes, of cached entities.
+     */
+    public CachingEntityResolver(EntityResolver delegate, long maxSize) {
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Map a public or system id to a class path resource.
+     *
+     * @param id
+     * @param resource the absolute path of the resource.
+     * @return
+     */
+    public CachingEntityResolver map(String id, String resource) {
+        synchronized (resources) {
+            resources.put(id, resource);
+        }
+        return this;
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId)
+            throws SAXException, IOException {
+        String resource = resource(systemId);
+        if (resource == null)
+            resource = resource(publicId);
+        String key = resource != null ? "resource:" + resource : "id:" + publicId + "\n" + systemId;
+
+        byte[] data = get(key);
+        if (data == null) {
+            InputStream in;
+            if (resource != null) {
+                in = getClass().getResourceAsStream(resource);
+                if (in == null)
+                    throw new IOException("No such resource: " + resource);
+            } else {
+                InputSource source = delegate != null ? delegate.resolveEntity(publicId, systemId) : null;
+                if (source == null || source.getByteStream() == null)
+                    return source;
+                in = source.getByteStream();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                IOUtils.pipe(in, out);
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException)e.getCause();
+                throw e;
+            }
+            data = out.toByteArray();
+            put(key, data);
+        }
+
+        InputSource source = new InputSource(new ByteArrayInputStream(data));
+        source.setPublicId(publicId);
+        source.setSystemId(systemId);
+        return source;
+    }
+
+    /**
+     * Remove all cached entities.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * @return the total size, in bytes, of cached entities.
+     */
+    public long size() {
+        synchronized (cache) {
+            return size;
+        }
+    }
+
+    private String resource(String id) {
+        if (id == null)
+            return null;
+        synchronized (resources) {
+            return resources.get(id);
+        }
+    }
+
+    private byte[] get(String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    private void put(String key, byte[] data) {
+        if (data.length > maxSize)
+            return;
+        synchronized (cache) {
+            byte[] old = cache.put(key, data);
+            if (old != null)
+                size -= old.length;
+            size += data.length;
+            for (Iterator<byte[]> i = cache.values().iterator(); size > maxSize; ) {
+                size -= i.next().length;
+                i.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * An index of the elements of a DOM tree by name, for documents where many
+ * elements are looked up by name. The index is built in one pass over the
+ * tree, after which each lookup is a hash lookup. It is not updated if the
+ * tree is modified. Lookups give the same elements, in the same order, as
+ * {@link Element#getElementsByTagName(String)} on the root, including the
+ * name "*", which matches all elements.
+ *
+ * @author torkjelh
+ */
+public final class ElementIndex {
+
+    private final Map<String, List<Element>> elements = new HashMap<String, List<Element>>();
+
+    /**
+     * All the elements, in document order.
+     */
+    private final List<Element> all = new ArrayList<Element>();
+
+    /**
+     * Index a tree.
+     *
+     * @param root the root of the tree. Only its descendants are indexed.
+     */
+    public ElementIndex(Element root) {
+        add(root);
+    }
+
+    private void add(Element root) {
+        Node node = root;
+        while (node != null) {
+            if (node != root && node instanceof Element) {
+                put(((Element)node).getTagName(), (Element)node);
+                all.add((Element)node);
+            }
+            if (node.getFirstChild() != null) {
+                node = node.getFirstChild();
+                continue;
+            }
+            while (node != root && node.getNextSibling() == null)
+                node = node.getParentNode();
+            node = node == root ? null : node.getNextSibling();
+        }
+    }
+
+    private void put(String name, Element elem) {
+        List<Element> list = elements.get(name);
+        if (list == null) {
+            list = new ArrayList<Element>(1);
+            elements.put(name, list);
+        }
+        list.add(elem);
+    }
+
+    /**
+     * Get all elements with the given tag name.
+     *
+     * @param name
+     * @return an unmodifiable list of elements, in document order.
+     */
+    public List<Element> get(String name) {
+        List<Element> list = list(name);
+        return list == null ? Collections.<Element>emptyList() : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Get the first element with the given tag name.
+     *
+     * @param name
+     * @return an element, or <code>null</code> if no such element exists.
+     */
+    public Element getFirst(String name) {
+        List<Element> list = list(name);
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+
+    private List<Element> list(String name) {
+        return "*".equals(name) ? all : elements.get(name);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * DOM helpers shared by the parsers.
+ *
+ * @author torkjelh
+ */
+final class Elements {
+
+    private Elements() { }
+
+    /**
+     * @see AbstractParser#getChildElement(Element, String)
+     */
+    static Element getChildElement(Element elem, String name) {
+        for (Node node = elem.getFirstChild(); node != null; node = node.getNextSibling())
+            if (node instanceof Element && ((Element)node).getTagName().equals(name))
+                return (Element)node;
+        return null;
+    }
+
+    /**
+     * @see AbstractParser#getChildElements(Element, String)
+     */
+    static List<Element> getChildElements(Element elem, String name) {
+        List<Element> children = new ArrayList<Element>();
+        for (Node node = elem.getFirstChild(); node != null; node = node.getNextSibling())
+            if (node instanceof Element && ((Element)node).getTagName().equals(name))
+                children.add((Element)node);
+        return children;
+    }
+}
@@ -25,9 +25,43 @@
  */
 package tuc.xml;
 
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
 
 public class HtmlBuilder extends XmlBuilder {
 
+    public HtmlBuilder() {
+    }
+
+    /**
+     * @see XmlBuilder#XmlBuilder(int)
+     */
+    public HtmlBuilder(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * @see XmlBuilder#XmlBuilder(OutputStream)
+     */
+    public HtmlBuilder(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * @see XmlBuilder#XmlBuilder(Writer)
+     */
+    public HtmlBuilder(Writer out) {
+        super(out);
+    }
+
+    /**
+     * @see XmlBuilder#XmlBuilder(WritableByteChannel)
+     */
+    public HtmlBuilder(WritableByteChannel out) {
+        super(out);
+    }
+
     private HtmlBuilder tag(String name) {
         return (HtmlBuilder)open(name);
     }
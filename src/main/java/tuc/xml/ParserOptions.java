@@ -0,0 +1,202 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Options for parsing XML documents into DOM trees. Instances are immutable;
+ * the setters return a new instance:
+ * <pre>
+ * ParserOptions options = ParserOptions.DEFAULT.namespaceAware(true);
+ * </pre>
+ *
+ * A {@link DocumentBuilderFactory} is created once for each distinct set of
+ * options, and each thread keeps a {@link DocumentBuilder} from it for
+ * reuse, so parsing many small documents does not pay the setup cost for
+ * each.
+ *
+ * @author torkjelh
+ */
+public final class ParserOptions {
+
+    /**
+     * Not namespace aware, not validating, and with the secure processing
+     * setting of a new {@link DocumentBuilderFactory} left as it is.
+     */
+    public static final ParserOptions DEFAULT = new ParserOptions(false, false, null);
+
+    private static final ConcurrentMap<ParserOptions, DocumentBuilderFactory> FACTORIES =
+        new ConcurrentHashMap<ParserOptions, DocumentBuilderFactory>();
+
+    private static final ThreadLocal<Map<ParserOptions, DocumentBuilder>> BUILDERS =
+        new ThreadLocal<Map<ParserOptions, DocumentBuilder>>() {
+            @Override
+            protected Map<ParserOptions, DocumentBuilder> initialValue() {
+                return new HashMap<ParserOptions, DocumentBuilder>();
+            }
+        };
+
+    private final boolean namespaceAware;
+    private final boolean validating;
+    /**
+     * The secure processing feature, or <code>null</code> to leave it unset.
+     */
+    private final Boolean secureProcessing;
+
+    private ParserOptions(boolean namespaceAware, boolean validating, Boolean secureProcessing) {
+        this.namespaceAware = namespaceAware;
+        this.validating = validating;
+        this.secureProcessing = secureProcessing;
+    }
+
+    public boolean isNamespaceAware() {
+        return namespaceAware;
+    }
+
+    public boolean isValidating() {
+        return validating;
+    }
+
+    /**
+     * @return the secure processing feature, or <code>null</code> if it is
+     *  left as the factory has it.
+     */
+    public Boolean getSecureProcessing() {
+        return secureProcessing;
+    }
+
+    /**
+     * @see DocumentBuilderFactory#setNamespaceAware(boolean)
+     */
+    public ParserOptions namespaceAware(boolean namespaceAware) {
+        return new ParserOptions(namespaceAware, validating, secureProcessing);
+    }
+
+    /**
+     * Validate documents against their DTD.
+     *
+     * @see DocumentBuilderFactory#setValidating(boolean)
+     */
+    public ParserOptions validating(boolean validating) {
+        return new ParserOptions(namespaceAware, validating, secureProcessing);
+    }
+
+    /**
+     * Limit the resources a document may consume, e.g. by entity expansion.
+     * Note that turning this on also denies access to external DTDs and
+     * schemas not supplied by the entity resolver.
+     *
+     * @see XMLConstants#FEATURE_SECURE_PROCESSING
+     */
+    public ParserOptions secureProcessing(boolean secureProcessing) {
+        return new ParserOptions(namespaceAware, validating, secureProcessing);
+    }
+
+    /**
+     * Take this thread's builder for these options, or a new one if the
+     * thread has none. The builder is reset. Give it back with
+     * {@link #release(DocumentBuilder)} when done; until then a nested
+     * parse on the same thread gets a builder of its own.
+     *
+     * @return
+     * @throws RuntimeException if the options are not supported.
+     */
+    DocumentBuilder take() {
+        DocumentBuilder builder = BUILDERS.get().remove(this);
+        if (builder != null) {
+            builder.reset();
+            return builder;
+        }
+        DocumentBuilderFactory factory = factory();
+        synchronized (factory) {
+            try {
+                return factory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Give a builder taken with {@link #take()} back to this thread.
+     *
+     * @param builder
+     */
+    void release(DocumentBuilder builder) {
+        BUILDERS.get().put(this, builder);
+    }
+
+    private DocumentBuilderFactory factory() {
+        DocumentBuilderFactory factory = FACTORIES.get(this);
+        if (factory == null) {
+            factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(namespaceAware);
+            factory.setValidating(validating);
+            if (secureProcessing != null) {
+                try {
+                    factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, secureProcessing);
+                } catch (ParserConfigurationException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            DocumentBuilderFactory existing = FACTORIES.putIfAbsent(this, factory);
+            if (existing != null)
+                factory = existing;
+        }
+        return factory;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ParserOptions))
+            return false;
+        ParserOptions other = (ParserOptions)o;
+        return namespaceAware == other.namespaceAware && validating == other.validating
+            && (secureProcessing == null ? other.secureProcessing == null
+                : secureProcessing.equals(other.secureProcessing));
+    }
+
+    @Override
+    public int hashCode() {
+        return (namespaceAware ? 1 : 0) | (validating ? 2 : 0)
+            | (secureProcessing == null ? 0 : secureProcessing ? 4 : 8);
+    }
+
+    @Override
+    public String toString() {
+        return "ParserOptions[namespaceAware=" + namespaceAware + ", validating=" + validating
+            + ", secureProcessing=" + secureProcessing + "]";
+    }
+}
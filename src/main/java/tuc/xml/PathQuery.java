@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A compiled path expression for selecting elements from a DOM tree. Compile
+ * a query once, and evaluate it against any number of documents; each
+ * evaluation is a single pass over the parts of the tree the path leads to.
+ * <pre>
+ * private static final PathQuery SERVERS = PathQuery.compile("cluster/server[@id]");
+ * ...
+ * for (Element server : SERVERS.select(root()))
+ *     ...
+ * </pre>
+ *
+ * A path is a sequence of steps separated by <code>/</code>, each selecting
+ * child elements by name, or any child element with <code>*</code>. A path
+ * starting with <code>/</code> is absolute, and its first step selects the
+ * document element. Each step may have predicates:
+ * <ul>
+ * <li><code>[@name]</code> - the element has the attribute.</li>
+ * <li><code>[@name='value']</code> - the attribute has the value.</li>
+ * <li><code>[n]</code> - the n'th element, counting from 1, of those the step
+ * selects among the children of one parent.</li>
+ * </ul>
+ * Names are matched against the tag name, or the local name for namespace
+ * aware documents. Queries are immutable, and may be shared between threads.
+ *
+ * @author torkjelh
+ */
+public final class PathQuery {
+
+    private final String path;
+    private final boolean absolute;
+    private final Step[] steps;
+
+    private PathQuery(String path, boolean absolute, Step[] steps) {
+        this.path = path;
+        this.absolute = absolute;
+        this.steps = steps;
+    }
+
+    /**
+     * Compile a path expression.
+     *
+     * @param path
+     * @return
+     * @throws IllegalArgumentException if the path is not valid.
+     */
+    public static PathQuery compile(String path) {
+        return new Compiler(path).compile();
+    }
+
+    /**
+     * Select all matching elements, in document order.
+     *
+     * @param context the element a relative path starts from, or any
+     *  element of the document for an absolute path.
+     * @return
+     */
+    public List<Element> select(Element context) {
+        List<Element> result = new ArrayList<Element>();
+        select(context, result, false);
+        return result;
+    }
+
+    /**
+     * Select the first matching element, in document order. The evaluation
+     * stops as soon as it is found.
+     *
+     * @param context the element a relative path starts from, or any
+     *  element of the document for an absolute path.
+     * @return an element, or <code>null</code> if none matches.
+     */
+    public Element selectFirst(Element context) {
+        List<Element> result = new ArrayList<Element>(1);
+        select(context, result, true);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    private void select(Element context, List<Element> result, boolean first) {
+        if (absolute) {
+            Element root = context.getOwnerDocument().getDocumentElement();
+            if (steps[0].matches(root) && steps[0].index <= 1) {
+                if (steps.length == 1)
+                    result.add(root);
+                else
+                    select(root, 1, result, first);
+            }
+        } else
+            select(context, 0, result, first);
+    }
+
+    /**
+     * Apply a step to the children of an element, and the rest of the path
+     * to each child selected.
+     *
+     * @return whether to stop, having found the first match.
+     */
+    private boolean select(Element parent, int s, List<Element> result, boolean first) {
+        Step step = steps[s];
+        int position = 0;
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (!(node instanceof Element) || !step.matches((Element)node))
+                continue;
+            position++;
+            if (step.index > 0 && position != step.index)
+                continue;
+            Element elem = (Element)node;
+            if (s == steps.length - 1) {
+                result.add(elem);
+                if (first)
+                    return true;
+            } else if (select(elem, s + 1, result, first))
+                return true;
+            if (step.index > 0)
+                break;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    private static final class Step {
+        /**
+         * The element name, or <code>null</code> for any.
+         */
+        final String name;
+        final String attr;
+        /**
+         * The required attribute value, or <code>null</code> if it only has
+         * to be present.
+         */
+        final String value;
+        /**
+         * The required position, or 0 for any.
+         */
+        final int index;
+
+        Step(String name, String attr, String value, int index) {
+            this.name = name;
+            this.attr = attr;
+            this.value = value;
+            this.index = index;
+        }
+
+        boolean matches(Element elem) {
+            if (name != null && !name.equals(elem.getTagName()) && !name.equals(elem.getLocalName()))
+                return false;
+            if (attr != null) {
+                if (!elem.hasAttribute(attr))
+                    return false;
+                if (value != null && !value.equals(elem.getAttribute(attr)))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class Compiler {
+        private final String path;
+        private int pos;
+
+        Compiler(String path) {
+            this.path = path;
+        }
+
+        PathQuery compile() {
+            boolean absolute = path.startsWith("/");
+            if (absolute)
+                pos++;
+            List<Step> steps = new ArrayList<Step>();
+            for (;;) {
+                steps.add(step());
+                if (pos == path.length())
+                    break;
+                expect('/');
+            }
+            return new PathQuery(path, absolute, steps.toArray(new Step[steps.size()]));
+        }
+
+        private Step step() {
+            String name = null;
+            if (pos < path.length() && path.charAt(pos) == '*')
+                pos++;
+            else
+                name = name();
+            String attr = null;
+            String value = null;
+            int index = 0;
+            while (pos < path.length() && path.charAt(pos) == '[') {
+                pos++;
+                if (pos < path.length() && path.charAt(pos) == '@') {
+                    if (attr != null)
+                        throw error("Only one attribute predicate per step");
+                    pos++;
+                    attr = name();
+                    if (pos < path.length() && path.charAt(pos) == '=') {
+                        pos++;
+                        value = literal();
+                    }
+                } else {
+                    if (index != 0)
+                        throw error("Only one position predicate per step");
+                    index = number();
+                }
+                expect(']');
+            }
+            return new Step(name, attr, value, index);
+        }
+
+        private String name() {
+            int start = pos;
+            while (pos < path.length() && "/[]@='\"*".indexOf(path.charAt(pos)) < 0
+                    && !Character.isWhitespace(path.charAt(pos)))
+                pos++;
+            if (pos == start)
+                throw error("Expected a name");
+            return path.substring(start, pos);
+        }
+
+        private String literal() {
+            char quote = pos < path.length() ? path.charAt(pos) : 0;
+            if (quote != '\'' && quote != '"')
+                throw error("Expected a quoted value");
+            int end = path.indexOf(quote, pos + 1);
+            if (end < 0)
+                throw error("Unterminated value");
+            String value = path.substring(pos + 1, end);
+            pos = end + 1;
+            return value;
+        }
+
+        private int number() {
+            int start = pos;
+            while (pos < path.length() && Character.isDigit(path.charAt(pos)))
+                pos++;
+            if (pos == start || pos - start > 9)
+                throw error("Expected a position");
+            int n = Integer.parseInt(path.substring(start, pos));
+            if (n < 1)
+                throw error("Positions start at 1");
+            return n;
+        }
+
+        private void expect(char ch) {
+            if (pos >= path.length() || path.charAt(pos) != ch)
+                throw error("Expected '" + ch + "'");
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in '" + path + "'");
+        }
+    }
+}
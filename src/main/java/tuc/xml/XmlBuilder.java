@@ -25,75 +25,421 @@
  */
 package tuc.xml;
 
-import java.util.Stack;
-
-import org.apache.commons.lang.StringEscapeUtils;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+/**
+ * Builds XML documents. By default the document is built in memory, and
+ * retrieved with {@link #toString()}. A builder created with a stream,
+ * writer or channel instead writes the document there as it is built,
+ * through a buffer of fixed size, so documents of any size can be built in
+ * bounded memory. Streams and channels get the document encoded as UTF-8.
+ * Call {@link #finish()} when done, to close any open elements and write
+ * the rest of the document. The target is never closed by the builder.
+ * <pre>
+ * XmlBuilder xml = new XmlBuilder(out);
+ * xml.open("export").attr("date", date);
+ * for (Item item : items)
+ *     xml.open("item").text(item.getName()).close();
+ * xml.finish();
+ * </pre>
+ */
 public class XmlBuilder {
-    private StringBuilder sb = new StringBuilder();
 
-    private State state = new State(null, -2);
-    private Stack<State> stack = new Stack<State>();
+    /**
+     * The default number of characters buffered before they are written to
+     * the target of a streaming builder.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    private final StringBuilder sb;
+
+    /**
+     * The names of the open elements, innermost at <code>depth - 1</code>.
+     */
+    private String[] tags = new String[16];
+    private int depth;
+
+    /**
+     * Whether the innermost open element has content, and whether its start
+     * tag is still open for attributes. Enclosing elements always have
+     * content, and closed start tags.
+     */
+    private boolean content;
+    private boolean attr = true;
+
+    private final int bufferSize;
+    private final Writer writer;
+    private final WritableByteChannel channel;
+    private final Flushable flushable;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes;
+    private final char[] chars;
+    private int pending;
 
     public XmlBuilder() {
+        this(16);
+    }
+
+    /**
+     * Create a builder with room for a document of the given length before
+     * it needs to grow its buffer.
+     *
+     * @param capacity
+     */
+    public XmlBuilder(int capacity) {
+        this(null, null, null, 0);
+        sb.ensureCapacity(capacity);
+    }
+
+    /**
+     * Create a builder writing UTF-8 to a stream.
+     *
+     * @param out
+     */
+    public XmlBuilder(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a builder writing UTF-8 to a stream.
+     *
+     * @param out
+     * @param bufferSize the number of characters to buffer.
+     */
+    public XmlBuilder(OutputStream out, int bufferSize) {
+        this(null, Channels.newChannel(out), out, bufferSize);
+    }
+
+    /**
+     * Create a builder writing to a writer.
+     *
+     * @param out
+     */
+    public XmlBuilder(Writer out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a builder writing to a writer.
+     *
+     * @param out
+     * @param bufferSize the number of characters to buffer.
+     */
+    public XmlBuilder(Writer out, int bufferSize) {
+        this(out, null, out, bufferSize);
+    }
+
+    /**
+     * Create a builder writing UTF-8 to a channel.
+     *
+     * @param out
+     */
+    public XmlBuilder(WritableByteChannel out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a builder writing UTF-8 to a channel.
+     *
+     * @param out
+     * @param bufferSize the number of characters to buffer.
+     */
+    public XmlBuilder(WritableByteChannel out, int bufferSize) {
+        this(null, out, out instanceof Flushable ? (Flushable)out : null, bufferSize);
+    }
+
+    private XmlBuilder(Writer writer, WritableByteChannel channel, Flushable flushable, int bufferSize) {
+        if ((writer != null || channel != null) && bufferSize < 16)
+            throw new IllegalArgumentException("bufferSize: " + bufferSize);
+        this.writer = writer;
+        this.channel = channel;
+        this.flushable = flushable;
+        this.bufferSize = bufferSize;
+        if (writer != null || channel != null) {
+            sb = new StringBuilder(bufferSize + bufferSize / 4);
+            chars = new char[bufferSize];
+        } else {
+            sb = new StringBuilder();
+            chars = null;
+        }
+        if (channel != null) {
+            encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            bytes = ByteBuffer.allocate((int)(bufferSize * encoder.maxBytesPerChar()));
+        } else {
+            encoder = null;
+            bytes = null;
+        }
     }
 
     public XmlBuilder open(String name) {
-        if (state.tag != null && state.attr)
-            sb.append(">");
-        state.content = true;
-        state.attr = false;
-        stack.push(state);
+        if (depth > 0 && attr)
+            sb.append('>');
+        if (depth == tags.length)
+            tags = Arrays.copyOf(tags, depth * 2);
+        tags[depth++] = name;
+        content = false;
+        attr = true;
 
-        state = new State(name, state.indent + 2);
-        if (state.tag != null)
-            sb.append("\n");
-        sb.append(indent()).append("<").append(name);
+        if (name != null)
+            sb.append('\n');
+        indent();
+        sb.append('<').append(name);
 
-        return this;
+        return written();
     }
 
+    /**
+     * Add an attribute to the open element. The value is escaped.
+     *
+     * @param name
+     * @param value
+     * @return
+     */
     public XmlBuilder attr(String name, Object value) {
-        sb.append(" ").append(name).append("=\"").append(value).append("\"");
-        return this;
+        sb.append(' ').append(name).append("=\"");
+        escape(value instanceof CharSequence ? (CharSequence)value : String.valueOf(value), true);
+        sb.append('"');
+        return written();
     }
 
+    /**
+     * Add character data to the open element. The text is escaped, and
+     * <code>null</code> is written as "null".
+     *
+     * @param text
+     * @return
+     */
     public XmlBuilder text(String text) {
-        if (state.attr)
-            sb.append(">");
-        sb.append(StringEscapeUtils.escapeXml(text));
-        state.content = true;
-        state.attr = false;
-        return this;
+        if (attr)
+            sb.append('>');
+        escape(String.valueOf(text), false);
+        content = true;
+        attr = false;
+        return written();
     }
 
     public XmlBuilder close() {
-        if (state.content)
-            sb.append("</").append(state.tag).append(">");
+        if (depth == 0)
+            throw new IllegalStateException("No open element");
+        if (content)
+            sb.append("</").append(tags[depth - 1]).append('>');
         else sb.append("/>");
-        state = stack.pop();
+        tags[--depth] = null;
+        content = true;
+        attr = false;
+        return written();
+    }
+
+    /**
+     * Discard the document, so the builder can be used for a new one. The
+     * buffers are kept, so building a document of similar size again
+     * allocates nothing beyond the strings it is made of. For a builder
+     * writing to a target, anything not yet written is discarded, and the
+     * builder continues to write to the same target.
+     *
+     * @return
+     */
+    public XmlBuilder reset() {
+        sb.setLength(0);
+        Arrays.fill(tags, 0, depth, null);
+        depth = 0;
+        content = false;
+        attr = true;
+        pending = 0;
+        if (encoder != null) {
+            encoder.reset();
+            bytes.clear();
+        }
         return this;
     }
 
-    private String indent() {
-        StringBuilder sb = new StringBuilder();
-        for (int n = 0; n < state.indent; n++)
-            sb.append(' ');
-        return sb.toString();
+    /**
+     * @return the number of characters held by the builder, i.e. the length
+     *  of the document for a builder without a target.
+     */
+    public int length() {
+        return sb.length();
+    }
+
+    /**
+     * @return the number of characters the builder holds without growing
+     *  its buffer.
+     */
+    int capacity() {
+        return sb.capacity();
+    }
+
+    /**
+     * @return whether the builder writes to a target.
+     */
+    boolean isStreaming() {
+        return chars != null;
+    }
+
+    /**
+     * Write everything built so far to the target, and flush the target.
+     * Does nothing for a builder without a target.
+     *
+     * @return
+     * @throws RuntimeException if any IO-error occurs.
+     */
+    public XmlBuilder flush() {
+        if (chars != null) {
+            drain(false);
+            try {
+                if (flushable != null)
+                    flushable.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Close all open elements, write the rest of the document to the target,
+     * and flush the target.
+     *
+     * @return
+     * @throws RuntimeException if any IO-error occurs.
+     */
+    public XmlBuilder finish() {
+        while (depth > 0)
+            close();
+        if (chars != null) {
+            drain(true);
+            flush();
+        }
+        return this;
     }
 
-    private static class State {
-        String tag;
-        int indent;
-        boolean content;
-        boolean attr = true;
+    private XmlBuilder written() {
+        if (chars != null && sb.length() >= bufferSize)
+            drain(false);
+        return this;
+    }
+
+    /**
+     * Write the buffered characters to the target. A trailing high surrogate
+     * is held back until its pair arrives, unless this is the end of input.
+     */
+    private void drain(boolean endOfInput) {
+        try {
+            int len = sb.length();
+            for (int off = 0; off < len; ) {
+                int n = Math.min(chars.length - pending, len - off);
+                sb.getChars(off, off + n, chars, pending);
+                off += n;
+                if (writer != null)
+                    writer.write(chars, 0, n);
+                else {
+                    CharBuffer in = CharBuffer.wrap(chars, 0, pending + n);
+                    encode(in, false);
+                    pending = in.remaining();
+                    System.arraycopy(chars, in.position(), chars, 0, pending);
+                }
+            }
+            sb.setLength(0);
+            if (channel != null) {
+                if (endOfInput) {
+                    encode(CharBuffer.wrap(chars, 0, pending), true);
+                    pending = 0;
+                    while (encoder.flush(bytes).isOverflow())
+                        writeBytes();
+                    encoder.reset();
+                }
+                writeBytes();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void encode(CharBuffer in, boolean endOfInput) throws IOException {
+        for (;;) {
+            CoderResult result = encoder.encode(in, bytes, endOfInput);
+            if (result.isOverflow())
+                writeBytes();
+            else if (result.isUnderflow())
+                return;
+            else
+                result.throwException();
+        }
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        bytes.clear();
+    }
 
-        State(String tag, int indent) {
-            this.tag = tag;
-            this.indent = indent;
+    /**
+     * Append data, escaping the characters that are markup. In attribute
+     * values quotes and whitespace other than space are also escaped, since
+     * a parser would otherwise normalize them. Characters outside ASCII are
+     * written as character references, so the output is ASCII. Other
+     * characters are appended unchanged, in runs between the escaped ones.
+     */
+    private void escape(CharSequence data, boolean attr) {
+        int start = 0;
+        int len = data.length();
+        for (int n = 0; n < len; n++) {
+            char c = data.charAt(n);
+            if (c > 0x7F) {
+                int cp = Character.codePointAt(data, n);
+                sb.append(data, start, n).append("&#").append(cp).append(';');
+                n += Character.charCount(cp) - 1;
+                start = n + 1;
+                continue;
+            }
+            String escaped;
+            switch (c) {
+            case '&': escaped = "&amp;"; break;
+            case '<': escaped = "&lt;"; break;
+            case '>': escaped = "&gt;"; break;
+            case '"': escaped = attr ? "&quot;" : null; break;
+            case '\t': escaped = attr ? "&#9;" : null; break;
+            case '\n': escaped = attr ? "&#10;" : null; break;
+            case '\r': escaped = "&#13;"; break;
+            default: escaped = null;
+            }
+            if (escaped != null) {
+                sb.append(data, start, n).append(escaped);
+                start = n + 1;
+            }
         }
+        sb.append(data, start, len);
+    }
+
+    private static final char[] SPACES = new char[64];
+    static {
+        Arrays.fill(SPACES, ' ');
+    }
+
+    private void indent() {
+        for (int n = (depth - 1) * 2; n > 0; n -= SPACES.length)
+            sb.append(SPACES, 0, Math.min(n, SPACES.length));
     }
 
+    /**
+     * Get the document. For a builder writing to a target, this is only the
+     * part not yet written.
+     */
     public String toString() {
         return sb.toString();
     }
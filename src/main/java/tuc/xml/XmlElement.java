@@ -0,0 +1,202 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static tuc.xml.XmlTree.ATTR;
+import static tuc.xml.XmlTree.ATTR_COUNT;
+import static tuc.xml.XmlTree.ATTR_NAME;
+import static tuc.xml.XmlTree.ATTR_VALUE;
+import static tuc.xml.XmlTree.ATTR_VALUE_LENGTH;
+import static tuc.xml.XmlTree.END;
+import static tuc.xml.XmlTree.NAME;
+import static tuc.xml.XmlTree.PARENT;
+import static tuc.xml.XmlTree.TEXT;
+import static tuc.xml.XmlTree.TEXT_LENGTH;
+
+/**
+ * An element of an {@link XmlTree}. Elements are lightweight views, created
+ * as the tree is navigated; two views of the same element are equal.
+ *
+ * @author torkjelh
+ */
+public final class XmlElement {
+
+    private final XmlTree tree;
+    private final int index;
+
+    XmlElement(XmlTree tree, int index) {
+        this.tree = tree;
+        this.index = index;
+    }
+
+    public XmlTree getTree() {
+        return tree;
+    }
+
+    public String getName() {
+        return tree.name(tree.get(index, NAME));
+    }
+
+    /**
+     * @return the parent element, or <code>null</code> for the root.
+     */
+    public XmlElement getParent() {
+        int parent = tree.get(index, PARENT);
+        return parent < 0 ? null : new XmlElement(tree, parent);
+    }
+
+    /**
+     * Get the value of an attribute.
+     *
+     * @param name
+     * @return the value, or <code>null</code> if the attribute is not set.
+     */
+    public String getAttribute(String name) {
+        int id = tree.nameId(name);
+        if (id < 0)
+            return null;
+        int first = tree.get(index, ATTR);
+        int end = first + tree.get(index, ATTR_COUNT);
+        for (int a = first; a < end; a++)
+            if (tree.getAttr(a, ATTR_NAME) == id)
+                return tree.text(tree.getAttr(a, ATTR_VALUE), tree.getAttr(a, ATTR_VALUE_LENGTH));
+        return null;
+    }
+
+    public boolean hasAttribute(String name) {
+        return getAttribute(name) != null;
+    }
+
+    public int getAttributeCount() {
+        return tree.get(index, ATTR_COUNT);
+    }
+
+    public String getAttributeName(int n) {
+        return tree.name(tree.getAttr(attr(n), ATTR_NAME));
+    }
+
+    public String getAttributeValue(int n) {
+        int a = attr(n);
+        return tree.text(tree.getAttr(a, ATTR_VALUE), tree.getAttr(a, ATTR_VALUE_LENGTH));
+    }
+
+    /**
+     * @return the character data of this element, not including that of
+     *  its descendants.
+     */
+    public String getText() {
+        return tree.text(tree.get(index, TEXT), tree.get(index, TEXT_LENGTH));
+    }
+
+    /**
+     * @return all child elements.
+     */
+    public List<XmlElement> getChildren() {
+        List<XmlElement> children = new ArrayList<XmlElement>();
+        int end = tree.get(index, END);
+        for (int e = index + 1; e < end; e = tree.get(e, END))
+            children.add(new XmlElement(tree, e));
+        return children;
+    }
+
+    /**
+     * Get the first child element with the given name.
+     *
+     * @param name
+     * @return an element, or <code>null</code> if no such element exists.
+     */
+    public XmlElement getChildElement(String name) {
+        int id = tree.nameId(name);
+        if (id >= 0) {
+            int end = tree.get(index, END);
+            for (int e = index + 1; e < end; e = tree.get(e, END))
+                if (tree.get(e, NAME) == id)
+                    return new XmlElement(tree, e);
+        }
+        return null;
+    }
+
+    /**
+     * Get all child elements with the given name.
+     *
+     * @param name
+     * @return
+     */
+    public List<XmlElement> getChildElements(String name) {
+        int id = tree.nameId(name);
+        if (id < 0)
+            return Collections.emptyList();
+        List<XmlElement> children = new ArrayList<XmlElement>();
+        int end = tree.get(index, END);
+        for (int e = index + 1; e < end; e = tree.get(e, END))
+            if (tree.get(e, NAME) == id)
+                children.add(new XmlElement(tree, e));
+        return children;
+    }
+
+    /**
+     * Get the first descendant element with the given name, in document
+     * order.
+     *
+     * @param name
+     * @return an element, or <code>null</code> if no such element exists.
+     */
+    public XmlElement getElement(String name) {
+        int id = tree.nameId(name);
+        if (id >= 0) {
+            int end = tree.get(index, END);
+            for (int e = index + 1; e < end; e++)
+                if (tree.get(e, NAME) == id)
+                    return new XmlElement(tree, e);
+        }
+        return null;
+    }
+
+    private int attr(int n) {
+        if (n < 0 || n >= getAttributeCount())
+            throw new IndexOutOfBoundsException("attribute: " + n);
+        return tree.get(index, ATTR) + n;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof XmlElement && ((XmlElement)o).tree == tree && ((XmlElement)o).index == index;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(tree) * 31 + index;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + getName() + ">";
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Comment;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.EntityResolver;
+
+import tuc.Exceptions;
+
+/**
+ * A compact, immutable XML document tree. Compared to a DOM tree it takes a
+ * fraction of the memory: the elements and attributes are rows in one
+ * <code>int</code> array, all text and attribute values share one
+ * <code>char</code> array where repeated short values are stored once, and
+ * names are interned strings. Since nothing is
+ * ever modified, a tree may be read by many threads at once. The elements
+ * are accessed through {@link XmlElement} views.<p>
+ *
+ * The tree holds elements, attributes and text. The text of an element is
+ * all its character data, joined; where an element also has child elements,
+ * text that is only whitespace is dropped. Comments and processing
+ * instructions are dropped. Names are qualified names, as the tag names of
+ * a DOM tree that is not namespace aware.
+ *
+ * @author torkjelh
+ */
+public final class XmlTree {
+
+    /*
+     * Element rows, in document order, followed by attribute rows. An
+     * element's descendants are the elements after it, up to its END.
+     */
+    static final int NAME = 0;
+    static final int PARENT = 1;
+    static final int END = 2;
+    static final int ATTR = 3;
+    static final int ATTR_COUNT = 4;
+    static final int TEXT = 5;
+    static final int TEXT_LENGTH = 6;
+    static final int ELEMENT_SIZE = 7;
+
+    static final int ATTR_NAME = 0;
+    static final int ATTR_VALUE = 1;
+    static final int ATTR_VALUE_LENGTH = 2;
+    static final int ATTR_SIZE = 3;
+
+    private final String[] names;
+    private final Map<String, Integer> nameIds;
+    private final IntBuffer ints;
+    private final CharBuffer chars;
+    private final int elementCount;
+    private final int attrCount;
+
+    XmlTree(String[] names, IntBuffer ints, CharBuffer chars, int elementCount, int attrCount) {
+        this.names = names;
+        this.ints = ints;
+        this.chars = chars;
+        this.elementCount = elementCount;
+        this.attrCount = attrCount;
+        this.nameIds = new HashMap<String, Integer>(names.length * 2);
+        for (int n = 0; n < names.length; n++)
+            nameIds.put(names[n], n);
+    }
+
+    /**
+     * Parse a document into a tree, using the
+     * {@link SimpleClasspathEntityResolver} entity resolver, and close the
+     * stream. No DOM tree is built.
+     *
+     * @param in
+     * @return
+     */
+    public static XmlTree parse(InputStream in) {
+        return parse(in, new SimpleClasspathEntityResolver());
+    }
+
+    /**
+     * Parse a document into a tree, and close the stream.
+     *
+     * @param in
+     * @param er
+     * @return
+     */
+    public static XmlTree parse(InputStream in, EntityResolver er) {
+        XMLStreamReader reader = null;
+        try {
+            reader = StreamReaders.create(in, er);
+            Builder builder = new Builder();
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    builder.start(qname(reader.getPrefix(), reader.getLocalName()));
+                    for (int n = 0; n < reader.getNamespaceCount(); n++) {
+                        String prefix = reader.getNamespacePrefix(n);
+                        builder.attr(prefix == null || prefix.isEmpty() ? "xmlns" : "xmlns:" + prefix,
+                            reader.getNamespaceURI(n));
+                    }
+                    for (int n = 0; n < reader.getAttributeCount(); n++)
+                        builder.attr(qname(reader.getAttributePrefix(n), reader.getAttributeLocalName(n)),
+                            reader.getAttributeValue(n));
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    builder.end();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    builder.text(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+            return builder.build();
+        } catch (XMLStreamException e) {
+            throw Exceptions.toRuntimeEx(e);
+        } finally {
+            if (reader != null)
+                try { reader.close(); } catch (XMLStreamException e) { e.printStackTrace(); }
+            try { in.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    /**
+     * Copy a DOM tree.
+     *
+     * @param root
+     * @return
+     */
+    public static XmlTree of(Element root) {
+        Builder builder = new Builder();
+        add(builder, root);
+        return builder.build();
+    }
+
+    private static void add(Builder builder, Element elem) {
+        builder.start(elem.getTagName());
+        NamedNodeMap attrs = elem.getAttributes();
+        for (int n = 0; n < attrs.getLength(); n++) {
+            Attr attr = (Attr)attrs.item(n);
+            builder.attr(attr.getName(), attr.getValue());
+        }
+        for (Node node = elem.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element)
+                add(builder, (Element)node);
+            else if (node instanceof CharacterData && !(node instanceof Comment)) {
+                String text = ((CharacterData)node).getData();
+                builder.text(text.toCharArray(), 0, text.length());
+            } else if (node.getNodeType() == Node.ENTITY_REFERENCE_NODE) {
+                String text = node.getTextContent();
+                builder.text(text.toCharArray(), 0, text.length());
+            }
+        }
+        builder.end();
+    }
+
+    private static String qname(String prefix, String local) {
+        return prefix == null || prefix.isEmpty() ? local : prefix + ":" + local;
+    }
+
+    /**
+     * @return the document element.
+     */
+    public XmlElement getRoot() {
+        return new XmlElement(this, 0);
+    }
+
+    /**
+     * @return the number of elements in the document.
+     */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    int get(int element, int field) {
+        return ints.get(element * ELEMENT_SIZE + field);
+    }
+
+    int getAttr(int attr, int field) {
+        return ints.get(elementCount * ELEMENT_SIZE + attr * ATTR_SIZE + field);
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the id of a name, or -1 if no element or attribute has it.
+     */
+    int nameId(String name) {
+        Integer id = nameIds.get(name);
+        return id != null ? id : -1;
+    }
+
+    String text(int offset, int length) {
+        if (length == 0)
+            return "";
+        if (chars.hasArray())
+            return new String(chars.array(), chars.arrayOffset() + offset, length);
+        return chars.subSequence(offset, offset + length).toString();
+    }
+
+    String[] names() {
+        return names;
+    }
+
+    IntBuffer ints() {
+        return ints.duplicate();
+    }
+
+    CharBuffer chars() {
+        return chars.duplicate();
+    }
+
+    int attrCount() {
+        return attrCount;
+    }
+
+    /**
+     * Check that every row refers to names, rows and text within the tree,
+     * and that the elements nest, so a corrupt tree can not send a reader
+     * out of bounds or into an endless loop.
+     *
+     * @return whether the tree is consistent.
+     */
+    boolean isConsistent() {
+        int charCount = chars.remaining();
+        if (elementCount < 1 || get(0, PARENT) != -1 || get(0, END) != elementCount)
+            return false;
+        for (int e = 0; e < elementCount; e++) {
+            int end = get(e, END);
+            int attr = get(e, ATTR);
+            if (!isName(get(e, NAME))
+                    || end <= e || end > elementCount
+                    || attr < 0 || attr > attrCount
+                    || !isRange(attr, get(e, ATTR_COUNT), attrCount)
+                    || !isRange(get(e, TEXT), get(e, TEXT_LENGTH), charCount))
+                return false;
+            if (e > 0) {
+                int parent = get(e, PARENT);
+                if (parent < 0 || parent >= e || end > get(parent, END))
+                    return false;
+            }
+        }
+        for (int a = 0; a < attrCount; a++)
+            if (!isName(getAttr(a, ATTR_NAME))
+                    || !isRange(getAttr(a, ATTR_VALUE), getAttr(a, ATTR_VALUE_LENGTH), charCount))
+                return false;
+        return true;
+    }
+
+    private boolean isName(int id) {
+        return id >= 0 && id < names.length;
+    }
+
+    private static boolean isRange(int offset, int length, int size) {
+        return offset >= 0 && length >= 0 && offset <= size - length;
+    }
+
+    /**
+     * Builds the arrays of a tree from a sequence of start tags, attributes,
+     * text and end tags.
+     */
+    private static final class Builder {
+        private static final int SHARED_TEXT_LENGTH = 32;
+
+        private final Map<String, Integer> names = new LinkedHashMap<String, Integer>();
+        private int[] elements = new int[ELEMENT_SIZE * 64];
+        private int elementCount;
+        private int[] attrs = new int[ATTR_SIZE * 64];
+        private int attrCount;
+        private char[] chars = new char[1024];
+        private int charCount;
+        private final Map<String, Integer> sharedTexts = new HashMap<String, Integer>();
+
+        /**
+         * The open elements, and the direct text and whether there are
+         * child elements for each.
+         */
+        private int[] open = new int[16];
+        private StringBuilder[] texts = new StringBuilder[16];
+        private boolean[] children = new boolean[16];
+        private int depth;
+
+        void start(String name) {
+            if (depth > 0)
+                children[depth - 1] = true;
+            else if (elementCount > 0)
+                throw new IllegalStateException("More than one root element");
+            if (elementCount * ELEMENT_SIZE == elements.length)
+                elements = Arrays.copyOf(elements, elements.length * 2);
+            int row = elementCount * ELEMENT_SIZE;
+            elements[row + NAME] = name(name);
+            elements[row + PARENT] = depth > 0 ? open[depth - 1] : -1;
+            elements[row + ATTR] = attrCount;
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+                texts = Arrays.copyOf(texts, depth * 2);
+                children = Arrays.copyOf(children, depth * 2);
+            }
+            if (texts[depth] == null)
+                texts[depth] = new StringBuilder();
+            texts[depth].setLength(0);
+            children[depth] = false;
+            open[depth++] = elementCount++;
+        }
+
+        void attr(String name, String value) {
+            int element = open[depth - 1];
+            if (attrCount * ATTR_SIZE == attrs.length)
+                attrs = Arrays.copyOf(attrs, attrs.length * 2);
+            int row = attrCount * ATTR_SIZE;
+            attrs[row + ATTR_NAME] = name(name);
+            attrs[row + ATTR_VALUE] = append(value);
+            attrs[row + ATTR_VALUE_LENGTH] = value.length();
+            attrCount++;
+            elements[element * ELEMENT_SIZE + ATTR_COUNT]++;
+        }
+
+        void text(char[] text, int off, int len) {
+            if (depth > 0)
+                texts[depth - 1].append(text, off, len);
+        }
+
+        void end() {
+            int element = open[--depth];
+            int row = element * ELEMENT_SIZE;
+            StringBuilder text = texts[depth];
+            if (children[depth] && isWhitespace(text))
+                text.setLength(0);
+            elements[row + END] = elementCount;
+            elements[row + TEXT] = append(text);
+            elements[row + TEXT_LENGTH] = text.length();
+        }
+
+        XmlTree build() {
+            if (elementCount == 0 || depth > 0)
+                throw new IllegalStateException("Incomplete document");
+            int[] ints = Arrays.copyOf(elements, elementCount * ELEMENT_SIZE + attrCount * ATTR_SIZE);
+            System.arraycopy(attrs, 0, ints, elementCount * ELEMENT_SIZE, attrCount * ATTR_SIZE);
+            return new XmlTree(names.keySet().toArray(new String[names.size()]), IntBuffer.wrap(ints),
+                CharBuffer.wrap(Arrays.copyOf(chars, charCount)), elementCount, attrCount);
+        }
+
+        private int name(String name) {
+            Integer id = names.get(name);
+            if (id == null) {
+                id = names.size();
+                names.put(name.intern(), id);
+            }
+            return id;
+        }
+
+        /**
+         * Append text to the shared character storage. Short texts, such as
+         * repeated attribute values, are stored once.
+         */
+        private int append(CharSequence text) {
+            int len = text.length();
+            String key = null;
+            if (len <= SHARED_TEXT_LENGTH) {
+                key = text.toString();
+                Integer shared = sharedTexts.get(key);
+                if (shared != null)
+                    return shared;
+            }
+            int offset = charCount;
+            if (charCount + len > chars.length)
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + len));
+            if (text instanceof String)
+                ((String)text).getChars(0, len, chars, charCount);
+            else
+                ((StringBuilder)text).getChars(0, len, chars, charCount);
+            charCount += len;
+            if (key != null)
+                sharedTexts.put(key, offset);
+            return offset;
+        }
+
+        private static boolean isWhitespace(CharSequence text) {
+            for (int n = 0; n < text.length(); n++)
+                if (!Character.isWhitespace(text.charAt(n)))
+                    return false;
+            return true;
+        }
+    }
+}
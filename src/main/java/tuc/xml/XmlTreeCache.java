@@ -0,0 +1,216 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+import org.xml.sax.EntityResolver;
+
+import tuc.StringUtils;
+import tuc.file.FileUtils;
+import tuc.file.MappedFile;
+
+/**
+ * Caches parsed {@link XmlTree}s in a binary form next to their source
+ * files, for fast warm starts. The binary form holds the tree's name table
+ * and its <code>int</code> and <code>char</code> arrays as they are, so
+ * loading it is a matter of memory-mapping the file; the tree reads
+ * directly from the mapping. The cache records a checksum of the source, and
+ * is rebuilt when the source changes.
+ * <pre>
+ * XmlTree config = XmlTreeCache.load(new File("conf/services.xml"));
+ * </pre>
+ *
+ * @author torkjelh
+ */
+public final class XmlTreeCache {
+
+    private XmlTreeCache() { }
+
+    /**
+     * The suffix added to the source file name to get the cache file name.
+     */
+    public static final String SUFFIX = ".tree";
+
+    private static final int MAGIC = 0x74757874;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Load a document, from its cache if the cache is up to date, or else by
+     * parsing it with the {@link SimpleClasspathEntityResolver} and writing
+     * the cache.
+     *
+     * @param source
+     * @return
+     * @see #load(File, File, EntityResolver)
+     */
+    public static XmlTree load(File source) {
+        return load(source, new File(source.getPath() + SUFFIX), new SimpleClasspathEntityResolver());
+    }
+
+    /**
+     * Load a document, from its cache if the cache is up to date, or else by
+     * parsing it and writing the cache. Failing to write the cache does not
+     * fail the load.
+     *
+     * @param source
+     * @param cache
+     * @param er
+     * @return
+     * @throws RuntimeException if any IO-error occurs reading the source,
+     *  or if it is not well-formed.
+     */
+    public static XmlTree load(File source, File cache, EntityResolver er) {
+        String checksum = StringUtils.hash(source);
+        XmlTree tree = map(cache, checksum);
+        if (tree == null) {
+            try {
+                tree = XmlTree.parse(new FileInputStream(source), er);
+            } catch (FileNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+            try {
+                save(tree, checksum, cache);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Write a tree to a cache file. The file is replaced atomically.
+     *
+     * @param tree
+     * @param checksum the checksum of the source.
+     * @param cache
+     * @throws RuntimeException if any IO-error occurs.
+     */
+    public static void save(XmlTree tree, String checksum, File cache) {
+        String[] names = tree.names();
+        IntBuffer ints = tree.ints();
+        CharBuffer chars = tree.chars();
+        int intCount = ints.remaining();
+        int charCount = chars.remaining();
+        try {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(header);
+            out.writeUTF(checksum);
+            out.writeInt(tree.getElementCount());
+            out.writeInt(tree.attrCount());
+            out.writeInt(intCount);
+            out.writeInt(charCount);
+            out.writeInt(names.length);
+            for (String name : names)
+                out.writeUTF(name);
+            out.flush();
+
+            int headerLength = align(12 + header.size());
+            ByteBuffer data = ByteBuffer.allocate(headerLength + intCount * 4 + charCount * 2);
+            data.putInt(MAGIC).putInt(VERSION).putInt(headerLength).put(header.toByteArray());
+            data.position(headerLength);
+            data.asIntBuffer().put(ints);
+            data.position(headerLength + intCount * 4);
+            data.asCharBuffer().put(chars);
+            FileUtils.saveFileAtomic(cache, new ByteArrayInputStream(data.array()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Map a tree from a cache file.
+     *
+     * @param cache
+     * @param checksum the checksum of the source, or <code>null</code> to
+     *  accept any.
+     * @return the tree, or <code>null</code> if the file does not exist, is
+     *  not a cache file, is not for a source with the given checksum, or its
+     *  contents are inconsistent.
+     */
+    public static XmlTree map(File cache, String checksum) {
+        if (!cache.isFile() || cache.length() < 12)
+            return null;
+        MappedFile file = new MappedFile(cache);
+        try {
+            ByteBuffer start = file.slice(0, 12);
+            if (start.getInt() != MAGIC || start.getInt() != VERSION)
+                return null;
+            int headerLength = start.getInt();
+            if (headerLength < 12 || headerLength > file.size())
+                return null;
+            byte[] header = new byte[headerLength - 12];
+            file.get(12, header, 0, header.length);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+            String cached = in.readUTF();
+            if (checksum != null && !checksum.equals(cached))
+                return null;
+            int elementCount = in.readInt();
+            int attrCount = in.readInt();
+            int intCount = in.readInt();
+            int charCount = in.readInt();
+            int nameCount = in.readInt();
+            // every name takes at least two bytes of the header.
+            if (elementCount < 0 || attrCount < 0 || charCount < 0
+                    || nameCount < 0 || nameCount > in.available() / 2)
+                return null;
+            long intLength = (elementCount * (long)XmlTree.ELEMENT_SIZE + attrCount * (long)XmlTree.ATTR_SIZE) * 4;
+            long charLength = charCount * 2L;
+            if (intCount * 4L != intLength || intLength > Integer.MAX_VALUE
+                    || charLength > Integer.MAX_VALUE
+                    || file.size() != headerLength + intLength + charLength)
+                return null;
+            String[] names = new String[nameCount];
+            for (int n = 0; n < names.length; n++)
+                names[n] = in.readUTF().intern();
+            IntBuffer ints = file.slice(headerLength, (int)intLength).asIntBuffer();
+            CharBuffer chars = file.slice(headerLength + intLength, (int)charLength).asCharBuffer();
+            XmlTree tree = new XmlTree(names, ints, chars, elementCount, attrCount);
+            return tree.isConsistent() ? tree : null;
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static int align(int n) {
+        return (n + 7) & ~7;
+    }
+}
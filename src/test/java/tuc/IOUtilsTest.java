@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IOUtilsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private File file(byte[] data) throws IOException {
+        File f = tmp.newFile();
+        IOUtils.pipe(new ByteArrayInputStream(data), new FileOutputStream(f));
+        return f;
+    }
+
+    /**
+     * Create a FIFO with a thread writing the data to it.
+     */
+    private static File fifo(File dir, final byte[] data) throws Exception {
+        final File fifo = new File(dir, "fifo");
+        int exit;
+        try {
+            exit = new ProcessBuilder("mkfifo", fifo.getPath()).start().waitFor();
+        } catch (IOException e) {
+            exit = -1;
+        }
+        assumeTrue(exit == 0);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    FileOutputStream out = new FileOutputStream(fifo);
+                    try {
+                        out.write(data);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+        return fifo;
+    }
+
+    @Test
+    public void pipeStreams() {
+        byte[] data = data(300000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IOUtils.pipe(new ByteArrayInputStream(data), out, 4096);
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void pipeFiles() throws IOException {
+        byte[] data = data(1000000);
+        File dst = tmp.newFile();
+        IOUtils.pipe(new FileInputStream(file(data)), new FileOutputStream(dst));
+        assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+    }
+
+    @Test
+    public void pipeFileChannels() throws IOException {
+        byte[] data = data(1000000);
+        File dst = tmp.newFile();
+        IOUtils.pipe(new FileInputStream(file(data)).getChannel(), new FileOutputStream(dst).getChannel());
+        assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+    }
+
+    @Test
+    public void pipeFromProc() throws IOException {
+        File proc = new File("/proc/self/stat");
+        assumeTrue(proc.exists());
+        File dst = tmp.newFile();
+        IOUtils.pipe(new FileInputStream(proc), new FileOutputStream(dst));
+        assertTrue(dst.length() > 0);
+
+        File dst2 = tmp.newFile();
+        IOUtils.pipe(new FileInputStream(proc).getChannel(), new FileOutputStream(dst2).getChannel());
+        assertTrue(dst2.length() > 0);
+    }
+
+    @Test(timeout = 60000)
+    public void pipeFromFifo() throws Exception {
+        byte[] data = data(200000);
+        File dst = tmp.newFile();
+        IOUtils.pipe(new FileInputStream(fifo(tmp.getRoot(), data)), new FileOutputStream(dst));
+        assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+    }
+
+    private long copy(File src, File dst) throws IOException {
+        FileInputStream in = new FileInputStream(src);
+        FileChannel out = new FileOutputStream(dst).getChannel();
+        try {
+            return IOUtils.copy(in, out, 4096);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    @Test
+    public void copyFile() throws IOException {
+        byte[] data = data(1000000);
+        File dst = tmp.newFile();
+        assertEquals(data.length, copy(file(data), dst));
+        assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+    }
+
+    @Test
+    public void copyFromProc() throws IOException {
+        File proc = new File("/proc/self/stat");
+        assumeTrue(proc.exists());
+        File dst = tmp.newFile();
+        long n = copy(proc, dst);
+        assertTrue(n > 0);
+        assertEquals(n, dst.length());
+    }
+
+    @Test(timeout = 60000)
+    public void copyFromFifo() throws Exception {
+        byte[] data = data(200000);
+        File dst = tmp.newFile();
+        assertEquals(data.length, copy(fifo(tmp.getRoot(), data), dst));
+        assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pipeRejectsEmptyBuffer() {
+        IOUtils.pipe(new ByteArrayInputStream(new byte[1]), new ByteArrayOutputStream(), 0);
+    }
+}
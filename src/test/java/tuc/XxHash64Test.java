@@ -0,0 +1,102 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class XxHash64Test {
+
+    private static byte[] bytes(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8");
+    }
+
+    /**
+     * Reference values of the xxHash64 specification implementation.
+     */
+    @Test
+    public void referenceVectors() throws UnsupportedEncodingException {
+        assertEquals(0xEF46DB3751D8E999L, XxHash64.hash(new byte[0]));
+        assertEquals(0xD24EC4F1A98C6E5BL, XxHash64.hash(bytes("a")));
+        assertEquals(0x44BC2CF5AD770999L, XxHash64.hash(bytes("abc")));
+        assertEquals(0x32DD38952C4BC720L, XxHash64.hash(bytes("xxhash")));
+        assertEquals(0xFBCEA83C8A378BF1L, XxHash64.hash(bytes("Nobody inspects the spammish repetition")));
+        byte[] x = bytes("xxhash");
+        assertEquals(0xB559B98D844E0635L, XxHash64.hash(x, 0, x.length, 20141025));
+    }
+
+    @Test
+    public void sameForAllInputs() {
+        Random random = new Random(1);
+        for (int len : new int[] { 0, 1, 3, 4, 7, 8, 31, 32, 33, 63, 64, 100, 1000, 4099 }) {
+            byte[] data = new byte[len + 5];
+            random.nextBytes(data);
+            long seed = random.nextLong();
+            long expected = XxHash64.hash(data, 5, len, seed);
+
+            ByteBuffer heap = ByteBuffer.wrap(data, 5, len);
+            assertEquals(expected, XxHash64.hash(heap, seed));
+            assertEquals(5, heap.position());
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(len + 1).order(ByteOrder.BIG_ENDIAN);
+            direct.position(1);
+            direct.put(data, 5, len).flip().position(1);
+            assertEquals(expected, XxHash64.hash(direct, seed));
+
+            assertEquals(expected, XxHash64.hash(new ByteArrayInputStream(data, 5, len), seed));
+
+            // stream in uneven pieces, crossing the 32 byte stripes.
+            XxHash64 h = new XxHash64(seed);
+            int off = 5;
+            for (int step = 1; off < len + 5; step = step * 2 + 1) {
+                int n = Math.min(step, len + 5 - off);
+                if (n == 1)
+                    h.update(data[off]);
+                else
+                    h.update(data, off, n);
+                off += n;
+            }
+            assertEquals(expected, h.getValue());
+
+            h.reset();
+            h.update(ByteBuffer.wrap(data, 5, len));
+            assertEquals(expected, h.getValue());
+        }
+    }
+
+    @Test
+    public void charSequence() throws UnsupportedEncodingException {
+        String s = "bl\u00e5b\u00e6r \ud83d\ude00 and a somewhat longer text";
+        assertEquals(XxHash64.hash(s.getBytes("UTF-16LE")), XxHash64.hash(s));
+    }
+}
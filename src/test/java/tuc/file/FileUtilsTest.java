@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileUtilsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void saveFileAtomic() throws IOException {
+        File f = new File(tmp.getRoot(), "f");
+        FileUtils.saveFileAtomic(f, new ByteArrayInputStream("first".getBytes("UTF-8")));
+        FileUtils.saveFileAtomic(f, new ByteArrayInputStream("second".getBytes("UTF-8")), true);
+        assertArrayEquals("second".getBytes("UTF-8"), Files.readAllBytes(f.toPath()));
+        assertEquals(1, tmp.getRoot().list().length);
+    }
+
+    @Test
+    public void saveFileAtomicFromProc() throws IOException {
+        File proc = new File("/proc/self/stat");
+        assumeTrue(proc.exists());
+        File f = new File(tmp.getRoot(), "stat");
+        FileUtils.saveFileAtomic(f, new FileInputStream(proc));
+        assertTrue(f.length() > 0);
+    }
+
+    @Test
+    public void batch() throws IOException {
+        File a = new File(tmp.getRoot(), "a");
+        File b = new File(tmp.getRoot(), "b");
+        AtomicFileBatch batch = new AtomicFileBatch();
+        batch.add(a, new ByteArrayInputStream("a".getBytes("UTF-8")));
+        batch.add(b, new ByteArrayInputStream("b".getBytes("UTF-8")));
+        assertFalse(a.exists());
+        batch.commit();
+        assertArrayEquals("a".getBytes("UTF-8"), Files.readAllBytes(a.toPath()));
+        assertArrayEquals("b".getBytes("UTF-8"), Files.readAllBytes(b.toPath()));
+    }
+
+    @Test
+    public void abortedBatch() throws IOException {
+        File a = new File(tmp.getRoot(), "a");
+        AtomicFileBatch batch = new AtomicFileBatch();
+        batch.add(a, new ByteArrayInputStream("a".getBytes("UTF-8")));
+        batch.abort();
+        assertFalse(a.exists());
+        assertEquals(0, tmp.getRoot().list().length);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalScannerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File root;
+    private File snapshot;
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmp.newFolder("root");
+        snapshot = new File(tmp.getRoot(), "root.snapshot");
+        write("f1", "one");
+        write("f2", "two");
+        write("a/f3", "three");
+        write("a/b/f4", "four");
+    }
+
+    private void write(String name, String data) throws IOException {
+        File f = new File(root, name);
+        f.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private List<String> scan(IncrementalScanner scanner) {
+        List<String> changes = new ArrayList<String>();
+        for (FileChange c : scanner.scan()) {
+            String rel = root.toPath().relativize(new File(c.getPath()).toPath()).toString();
+            changes.add(c.getType() + " " + rel.replace(File.separatorChar, '/'));
+        }
+        Collections.sort(changes);
+        return changes;
+    }
+
+    private List<String> scan() {
+        return scan(new IncrementalScanner(root.getPath(), snapshot));
+    }
+
+    @Test
+    public void firstScanAddsAll() {
+        assertEquals(Arrays.asList("ADDED a/b/f4", "ADDED a/f3", "ADDED f1", "ADDED f2"), scan());
+        assertTrue(snapshot.isFile());
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        scan();
+        assertEquals(Collections.emptyList(), scan());
+
+        write("f1", "changed");
+        write("a/b/f5", "five");
+        assertTrue(new File(root, "f2").delete());
+        assertEquals(Arrays.asList("ADDED a/b/f5", "DELETED f2", "MODIFIED f1"), scan());
+        assertEquals(Collections.emptyList(), scan());
+    }
+
+    @Test
+    public void deletedDirectory() throws IOException {
+        scan();
+        assertTrue(new File(root, "a/b/f4").delete());
+        assertTrue(new File(root, "a/b").delete());
+        assertEquals(Arrays.asList("DELETED a/b/f4"), scan());
+    }
+
+    @Test
+    public void hashedRewriteIsNotModified() throws IOException {
+        List<FileChange> first = new IncrementalScanner(root.getPath(), snapshot).hash("SHA").scan();
+        assertNotNull(first.get(0).getHash());
+        File f1 = new File(root, "f1");
+        write("f1", "one");
+        assertTrue(f1.setLastModified(f1.lastModified() - 60000));
+        assertEquals(Collections.emptyList(), scan(new IncrementalScanner(root.getPath(), snapshot).hash("SHA")));
+
+        write("f1", "eno");
+        assertTrue(f1.setLastModified(f1.lastModified() - 120000));
+        assertEquals(Arrays.asList("MODIFIED f1"), scan(new IncrementalScanner(root.getPath(), snapshot).hash("SHA")));
+    }
+
+    @Test
+    public void linkCycle() throws IOException {
+        Files.createSymbolicLink(new File(root, "a/loop").toPath(), new File("..").toPath());
+        assertEquals(Arrays.asList("ADDED a/b/f4", "ADDED a/f3", "ADDED f1", "ADDED f2"), scan());
+        assertEquals(Collections.emptyList(), scan());
+    }
+}
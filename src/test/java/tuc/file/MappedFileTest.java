@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import tuc.StringUtils;
+
+public class MappedFileTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File file(byte[] data) throws IOException {
+        File f = tmp.newFile();
+        FileUtils.saveFile(f, new ByteArrayInputStream(data));
+        return f;
+    }
+
+    @Test
+    public void acrossSegments() throws IOException {
+        byte[] data = new byte[1000];
+        new Random(1).nextBytes(data);
+        MappedFile file = new MappedFile(file(data).toPath(), 64);
+        try {
+            assertEquals(1000, file.size());
+            assertEquals(16, file.segmentCount());
+            assertEquals(data[999], file.get(999));
+
+            byte[] copy = new byte[1000];
+            file.get(0, copy, 0, 1000);
+            assertArrayEquals(data, copy);
+
+            for (int pos : new int[] { 0, 10, 60, 64, 130 }) {
+                ByteBuffer slice = file.slice(pos, 50);
+                byte[] b = new byte[50];
+                slice.get(b);
+                assertArrayEquals(Arrays.copyOfRange(data, pos, pos + 50), b);
+            }
+            assertEquals(StringUtils.hash(data, StringUtils.SHA), file.hash(StringUtils.SHA));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void outOfBounds() throws IOException {
+        MappedFile file = new MappedFile(file(new byte[10]).toPath(), 64);
+        try {
+            file.slice(5, 6);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void lines() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int n = 0; n < 50; n++) {
+            String line = n % 7 == 0 ? "" : "line " + n;
+            expected.add(line);
+            sb.append(line).append(n % 3 == 0 ? "\r\n" : "\n");
+        }
+        // segments smaller than the lines, so records span segments.
+        MappedFile file = new MappedFile(file(sb.toString().getBytes("UTF-8")).toPath(), 5);
+        try {
+            List<String> lines = new ArrayList<String>();
+            for (MappedFile.Record r : file.lines())
+                lines.add(r.toString());
+            assertEquals(expected, lines);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void records() throws IOException {
+        MappedFile file = new MappedFile(file("a,bb,,ccc".getBytes("UTF-8")).toPath(), 4);
+        try {
+            List<String> records = new ArrayList<String>();
+            List<Long> offsets = new ArrayList<Long>();
+            for (MappedFile.Record r : file.records((byte)',')) {
+                records.add(r.toString());
+                offsets.add(r.offset());
+            }
+            assertEquals(Arrays.asList("a", "bb", "", "ccc"), records);
+            assertEquals(Arrays.asList(0L, 2L, 5L, 6L), offsets);
+        } finally {
+            file.close();
+        }
+    }
+}
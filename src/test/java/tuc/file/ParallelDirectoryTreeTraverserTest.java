@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelDirectoryTreeTraverserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File tree() throws IOException {
+        File root = tmp.newFolder("tree");
+        File a = new File(root, "a");
+        File b = new File(a, "b");
+        assertTrue(b.mkdirs());
+        for (File dir : new File[] { root, a, b })
+            for (int n = 0; n < 3; n++)
+                assertTrue(new File(dir, "f" + n).createNewFile());
+        return root;
+    }
+
+    private static List<String> sequential(File root) {
+        List<String> files = new ArrayList<String>();
+        for (String f : new DirectoryTreeTraverser(root.getPath()))
+            files.add(f);
+        return files;
+    }
+
+    private static List<String> parallel(File root, boolean ordered) {
+        List<String> files = new ArrayList<String>();
+        ParallelDirectoryTreeTraverser t = new ParallelDirectoryTreeTraverser(root.getPath(), ordered);
+        try {
+            for (String f : t)
+                files.add(f);
+        } finally {
+            t.close();
+        }
+        return files;
+    }
+
+    @Test
+    public void orderedMatchesSequential() throws IOException {
+        File root = tree();
+        assertEquals(sequential(root), parallel(root, true));
+    }
+
+    @Test
+    public void unorderedFindsAllFiles() throws IOException {
+        File root = tree();
+        List<String> expected = sequential(root);
+        List<String> actual = parallel(root, false);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(9, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test(timeout = 60000)
+    public void hasNextAfterEnd() throws IOException {
+        File root = tree();
+        for (int n = 0; n < 50; n++) {
+            for (boolean ordered : new boolean[] { false, true }) {
+                ParallelDirectoryTreeTraverser t = new ParallelDirectoryTreeTraverser(root.getPath(), ordered);
+                Iterator<String> it = t.iterator();
+                int count = 0;
+                while (it.hasNext()) {
+                    it.next();
+                    count++;
+                }
+                assertEquals(9, count);
+                assertFalse(it.hasNext());
+                assertFalse(it.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void linkCycle() throws IOException {
+        File root = tree();
+        Files.createSymbolicLink(new File(root, "a/b/loop").toPath(), new File("../..").toPath());
+        List<String> expected = sequential(root);
+        assertEquals(9, expected.size());
+        assertEquals(expected, parallel(root, true));
+        assertEquals(9, parallel(root, false).size());
+    }
+}
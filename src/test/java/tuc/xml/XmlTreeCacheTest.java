@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010 Torkjel Hongve. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+ * DAMAGE.
+ */
+package tuc.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class XmlTreeCacheTest {
+
+    private static final String XML =
+        "<cfg version='1'><entry key='a'>one</entry><group><entry key='b'>two</entry></group></cfg>";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File cache;
+    private byte[] bytes;
+
+    @Before
+    public void setUp() throws IOException {
+        XmlTree tree = XmlTree.parse(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        cache = new File(tmp.getRoot(), "cfg.xml.tree");
+        XmlTreeCache.save(tree, "abc", cache);
+        bytes = Files.readAllBytes(cache.toPath());
+    }
+
+    private static String describe(XmlElement e) {
+        StringBuilder sb = new StringBuilder(e.getName());
+        for (int n = 0; n < e.getAttributeCount(); n++)
+            sb.append(' ').append(e.getAttributeName(n)).append('=').append(e.getAttributeValue(n));
+        sb.append('[').append(e.getText());
+        for (XmlElement c : e.getChildren())
+            sb.append(describe(c));
+        return sb.append(']').toString();
+    }
+
+    private XmlTree corrupt(int pos, int value) throws IOException {
+        byte[] b = bytes.clone();
+        ByteBuffer.wrap(b).putInt(pos, value);
+        Files.write(cache.toPath(), b);
+        return XmlTreeCache.map(cache, "abc");
+    }
+
+    /**
+     * The position of a field of an element row.
+     */
+    private int field(int element, int field) {
+        return ByteBuffer.wrap(bytes).getInt(8) + (element * XmlTree.ELEMENT_SIZE + field) * 4;
+    }
+
+    @Test
+    public void roundTrip() {
+        XmlTree tree = XmlTreeCache.map(cache, "abc");
+        assertNotNull(tree);
+        assertEquals(4, tree.getElementCount());
+        assertEquals("cfg version=1[entry key=a[one]group[entry key=b[two]]]", describe(tree.getRoot()));
+        assertEquals("two", tree.getRoot().getElement("group").getElement("entry").getText());
+        assertNotNull(XmlTreeCache.map(cache, null));
+    }
+
+    @Test
+    public void otherChecksum() {
+        assertNull(XmlTreeCache.map(cache, "def"));
+    }
+
+    @Test
+    public void missingOrTruncated() throws IOException {
+        assertNull(XmlTreeCache.map(new File(tmp.getRoot(), "none"), null));
+        byte[] b = new byte[bytes.length - 4];
+        System.arraycopy(bytes, 0, b, 0, b.length);
+        Files.write(cache.toPath(), b);
+        assertNull(XmlTreeCache.map(cache, "abc"));
+    }
+
+    @Test
+    public void corruptHeader() throws IOException {
+        // the counts follow the magic, version, header length and checksum.
+        int counts = 12 + 2 + 3;
+        assertNull(corrupt(counts, -1));
+        assertNull(corrupt(counts + 4, Integer.MAX_VALUE));
+        assertNull(corrupt(counts + 8, -2));
+        assertNull(corrupt(counts + 12, Integer.MAX_VALUE));
+        assertNull(corrupt(counts + 16, 1 << 20));
+        assertNull(corrupt(0, 0));
+    }
+
+    @Test(timeout = 10000)
+    public void corruptRows() throws IOException {
+        assertNull(corrupt(field(1, XmlTree.END), 1));
+        assertNull(corrupt(field(2, XmlTree.END), 5));
+        assertNull(corrupt(field(2, XmlTree.PARENT), 2));
+        assertNull(corrupt(field(0, XmlTree.NAME), 99));
+        assertNull(corrupt(field(1, XmlTree.ATTR_COUNT), 7));
+        assertNull(corrupt(field(1, XmlTree.TEXT), -1));
+        assertNull(corrupt(field(3, XmlTree.TEXT_LENGTH), 1000));
+        int attrs = field(4, 0);
+        assertNull(corrupt(attrs + XmlTree.ATTR_VALUE_LENGTH * 4, 1000));
+    }
+
+    @Test
+    public void loadRebuildsCorruptCache() throws IOException {
+        File source = new File(tmp.getRoot(), "cfg.xml");
+        FileOutputStream out = new FileOutputStream(source);
+        try {
+            out.write(XML.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        File sourceCache = new File(source.getPath() + XmlTreeCache.SUFFIX);
+        String expected = describe(XmlTreeCache.load(source).getRoot());
+        assertNotNull(XmlTreeCache.map(sourceCache, null));
+
+        byte[] b = Files.readAllBytes(sourceCache.toPath());
+        ByteBuffer.wrap(b).putInt(ByteBuffer.wrap(b).getInt(8) + XmlTree.END * 4, 0);
+        Files.write(sourceCache.toPath(), b);
+        assertNull(XmlTreeCache.map(sourceCache, null));
+        assertEquals(expected, describe(XmlTreeCache.load(source).getRoot()));
+        assertNotNull(XmlTreeCache.map(sourceCache, null));
+    }
+}